@@ -0,0 +1,65 @@
+/**
+ * Keeps a tree AVL balanced: after every insert or removal, no node's AVL value is outside -1 to 1.
+ */
+public class AVLBalancer implements BalancingStrategy {
+
+    /**
+     * Walks up from a newly inserted node and fixes the first ancestor whose AVL value is out of range
+     * with a single or double rotation. After an insert, one fix restores the height the subtree had
+     * before, so nothing above it needs to change.
+     */
+    @Override
+    public void afterInsert(Tree tree, TreeNode node) {
+        for (TreeNode ancestor = node.getParent(); ancestor != null; ancestor = ancestor.getParent()) {
+            if (ancestor.getAvlValue() > 1) { // right heavy
+                if (ancestor.getRight().getAvlValue() < 0) { // right-left case
+                    tree.rotateRight(ancestor.getRight());
+                }
+                tree.rotateLeft(ancestor);
+                return;
+            }
+            if (ancestor.getAvlValue() < -1) { // left heavy
+                if (ancestor.getLeft().getAvlValue() > 0) { // left-right case
+                    tree.rotateLeft(ancestor.getLeft());
+                }
+                tree.rotateRight(ancestor);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Walks up from the lowest node that lost a descendant and fixes every ancestor whose AVL value is
+     * out of range. Unlike an insert, a rotation after a removal can shorten the subtree, so the walk
+     * continues all the way to the root.
+     */
+    @Override
+    public void afterRemove(Tree tree, TreeNode parent, TreeNode child, boolean removedRed) {
+        TreeNode ancestor = parent;
+        while (ancestor != null) {
+            if (ancestor.getAvlValue() > 1) {
+                if (ancestor.getRight().getAvlValue() < 0) {
+                    tree.rotateRight(ancestor.getRight());
+                }
+                ancestor = tree.rotateLeft(ancestor);
+            } else if (ancestor.getAvlValue() < -1) {
+                if (ancestor.getLeft().getAvlValue() > 0) {
+                    tree.rotateLeft(ancestor.getLeft());
+                }
+                ancestor = tree.rotateRight(ancestor);
+            }
+            ancestor = ancestor.getParent();
+        }
+    }
+
+    /**
+     * Rebalances a tree that was not AVL balanced when this strategy was given to it, since the fixes
+     * after an insert or removal only work on a tree that was balanced before the change.
+     */
+    @Override
+    public void afterRebuild(Tree tree) {
+        if (!tree.isBalanced()) {
+            tree.rebalance();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+import java.util.Arrays;
+
+/**
+ * A {@link NodeStore} that keeps every field in its own int array, so the record for a node is the
+ * same index in each array. Compared to a graph of {@link TreeNode}s there are no object headers or
+ * references per node, and a descent only touches a few primitive arrays.
+ */
+public class ArrayNodeStore implements NodeStore {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] lefts;
+    private int[] rights;
+    private int[] parents;
+    private int[] heights;
+    private int[] balances;
+    private int size;
+
+    /**
+     * Constructs an empty store with a small default capacity.
+     */
+    public ArrayNodeStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs an empty store that can hold the given number of nodes before it has to grow.
+     *
+     * @param capacity The number of nodes to make room for.
+     */
+    public ArrayNodeStore(int capacity) {
+        capacity = Math.max(capacity, 1);
+        keys = new int[capacity];
+        lefts = new int[capacity];
+        rights = new int[capacity];
+        parents = new int[capacity];
+        heights = new int[capacity];
+        balances = new int[capacity];
+    }
+
+    @Override
+    public int allocate(int key) {
+        if (size == keys.length) {
+            grow();
+        }
+        int node = size++;
+        keys[node] = key;
+        lefts[node] = NIL;
+        rights[node] = NIL;
+        parents[node] = NIL;
+        heights[node] = 1;
+        balances[node] = 0;
+        return node;
+    }
+
+    /**
+     * Doubles the length of every array.
+     */
+    private void grow() {
+        int capacity = keys.length * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        lefts = Arrays.copyOf(lefts, capacity);
+        rights = Arrays.copyOf(rights, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        heights = Arrays.copyOf(heights, capacity);
+        balances = Arrays.copyOf(balances, capacity);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0; // the arrays are kept, so rebuilding a tree of the same size allocates nothing
+    }
+
+    @Override
+    public int getKey(int node) {
+        return keys[node];
+    }
+
+    @Override
+    public int getLeft(int node) {
+        return lefts[node];
+    }
+
+    @Override
+    public void setLeft(int node, int left) {
+        lefts[node] = left;
+    }
+
+    @Override
+    public int getRight(int node) {
+        return rights[node];
+    }
+
+    @Override
+    public void setRight(int node, int right) {
+        rights[node] = right;
+    }
+
+    @Override
+    public int getParent(int node) {
+        return parents[node];
+    }
+
+    @Override
+    public void setParent(int node, int parent) {
+        parents[node] = parent;
+    }
+
+    @Override
+    public int getHeight(int node) {
+        return heights[node];
+    }
+
+    @Override
+    public void setHeight(int node, int height) {
+        heights[node] = height;
+    }
+
+    @Override
+    public int getBalance(int node) {
+        return balances[node];
+    }
+
+    @Override
+    public void setBalance(int node, int balance) {
+        balances[node] = balance;
+    }
+}
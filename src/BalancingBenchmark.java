@@ -0,0 +1,65 @@
+import java.util.Random;
+
+/**
+ * Compares the balancing strategies by inserting the same keys into a tree balanced by each of them,
+ * and prints the rotations per insert, the final height and the insert throughput. Run the main method
+ * directly; nothing is drawn.
+ */
+public class BalancingBenchmark {
+    private static final int INSERTS = 200_000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        int[] randomKeys = shuffledKeys(INSERTS, new Random(127));
+        int[] ascendingKeys = new int[INSERTS];
+        for (int i = 0; i < INSERTS; i++) {
+            ascendingKeys[i] = i;
+        }
+        run("random", randomKeys);
+        run("ascending", ascendingKeys);
+    }
+
+    private static void run(String label, int[] keys) {
+        System.out.println(label + " keys, " + keys.length + " inserts");
+        report("AVL", new AVLBalancer(), keys);
+        report("red-black", new RedBlackBalancer(), keys);
+    }
+
+    /**
+     * Builds the tree several times and reports the fastest round, so the JIT has warmed up.
+     */
+    private static void report(String name, BalancingStrategy balancing, int[] keys) {
+        long bestNanos = Long.MAX_VALUE;
+        Tree tree = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            tree = new Tree(0, balancing);
+            long start = System.nanoTime();
+            for (int key : keys) {
+                tree.insert(key);
+            }
+            bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+        }
+        System.out.printf("  %-10s %.3f rotations/insert, height %d, %.0f inserts/s%n",
+            name,
+            (double) tree.getRotationCount() / keys.length,
+            tree.getRoot().getHeightFromLeaf(),
+            keys.length / (bestNanos / 1e9));
+    }
+
+    /**
+     * Returns the keys 0 to count - 1 in a random order.
+     */
+    private static int[] shuffledKeys(int count, Random rand) {
+        int[] keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = i;
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1);
+            int swap = keys[i];
+            keys[i] = keys[j];
+            keys[j] = swap;
+        }
+        return keys;
+    }
+}
@@ -0,0 +1,38 @@
+/**
+ * Decides how a {@link Tree} restores balance after it changes. A strategy only uses the tree's
+ * {@code rotateLeft} and {@code rotateRight}, so the heights, AVL values and sizes stay up to date no
+ * matter which strategy is used. A tree without a strategy never rebalances itself.
+ */
+public interface BalancingStrategy {
+
+    /**
+     * Called after a node has been linked into the tree and the heights on its path have been updated.
+     *
+     * @param tree The tree the node was inserted into.
+     * @param node The newly inserted node.
+     */
+    void afterInsert(Tree tree, TreeNode node);
+
+    /**
+     * Called after a node has been unlinked from the tree and the heights above it have been updated.
+     * When the removed node had two children, its successor took its place and color, and the spot the
+     * successor left is the one described here.
+     *
+     * @param tree       The tree the node was removed from.
+     * @param parent     The lowest node that lost a descendant, or null if the root was removed.
+     * @param child      The node that now fills the emptied spot under the parent, or null.
+     * @param removedRed The red-black color of the node that left that spot.
+     */
+    void afterRemove(Tree tree, TreeNode parent, TreeNode child, boolean removedRed);
+
+    /**
+     * Called after the whole tree has been reshaped at once by {@link Tree#rebalance}, or when this
+     * strategy is given to a tree that already has nodes. The heights, AVL values and sizes are up to
+     * date. Strategies that keep their own state on the nodes set it up again here; the default does
+     * nothing.
+     *
+     * @param tree The tree that was reshaped.
+     */
+    default void afterRebuild(Tree tree) {
+    }
+}
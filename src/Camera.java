@@ -0,0 +1,92 @@
+/**
+ * Maps between the world, where the nodes are laid out, and the canvas, where they are drawn. The
+ * camera can be panned and zoomed; a point on the canvas is found in the world by dividing by the zoom
+ * and adding the offset.
+ */
+public class Camera {
+    public static final double MIN_ZOOM = 0.05;
+    public static final double MAX_ZOOM = 4;
+
+    private double offsetX;
+    private double offsetY;
+    private double zoom = 1;
+    private long version;
+
+    /**
+     * Moves the view by the given distance on the canvas, so the world follows the mouse when it is
+     * dragged.
+     *
+     * @param dx How far to move right, in canvas pixels.
+     * @param dy How far to move down, in canvas pixels.
+     */
+    public void pan(double dx, double dy) {
+        offsetX -= dx / zoom;
+        offsetY -= dy / zoom;
+        version++;
+    }
+
+    /**
+     * Zooms in or out while keeping the world point under the given canvas point where it is. The zoom
+     * stays between {@link #MIN_ZOOM} and {@link #MAX_ZOOM}.
+     *
+     * @param factor  How much to multiply the zoom by. Values above 1 zoom in.
+     * @param screenX The x coordinate on the canvas to zoom around.
+     * @param screenY The y coordinate on the canvas to zoom around.
+     */
+    public void zoomAt(double factor, double screenX, double screenY) {
+        double worldX = toWorldX(screenX);
+        double worldY = toWorldY(screenY);
+        zoom = Math.clamp(zoom * factor, MIN_ZOOM, MAX_ZOOM);
+        offsetX = worldX - screenX / zoom;
+        offsetY = worldY - screenY / zoom;
+        version++;
+    }
+
+    /**
+     * Goes back to showing the world unscaled, with its origin at the top left of the canvas.
+     */
+    public void reset() {
+        offsetX = 0;
+        offsetY = 0;
+        zoom = 1;
+        version++;
+    }
+
+    public double toWorldX(double screenX) {
+        return screenX / zoom + offsetX;
+    }
+
+    public double toWorldY(double screenY) {
+        return screenY / zoom + offsetY;
+    }
+
+    public double toScreenX(double worldX) {
+        return (worldX - offsetX) * zoom;
+    }
+
+    public double toScreenY(double worldY) {
+        return (worldY - offsetY) * zoom;
+    }
+
+    public double getOffsetX() {
+        return offsetX;
+    }
+
+    public double getOffsetY() {
+        return offsetY;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Returns a counter that goes up every time the camera moves, so a caller can tell whether it has
+     * to redraw.
+     *
+     * @return The number of moves so far.
+     */
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,227 @@
+import java.util.function.IntConsumer;
+
+/**
+ * A binary search tree of unique integers whose nodes live in a {@link NodeStore} and are addressed by
+ * int handles. It offers the same insert, rotate and level order iteration as {@link Tree}, and keeps
+ * heights and AVL values up to date along the changed path in the same way, but it allocates no
+ * objects per node. It is meant for large trees that are never drawn.
+ */
+public class CompactTree {
+    public static final int NIL = NodeStore.NIL;
+
+    private final NodeStore store;
+    private int root = NIL;
+    private int[] queue = new int[16];
+
+    /**
+     * Constructs an empty tree backed by int arrays with room for the given number of nodes.
+     *
+     * @param capacity The number of nodes to make room for.
+     */
+    public CompactTree(int capacity) {
+        this(new ArrayNodeStore(capacity));
+    }
+
+    /**
+     * Constructs an empty tree on top of the given store. Any records already in the store are
+     * discarded.
+     *
+     * @param store The store that holds the nodes.
+     */
+    public CompactTree(NodeStore store) {
+        this.store = store;
+        store.clear();
+    }
+
+    /**
+     * Removes every node but keeps the storage, so a tree of the same size can be rebuilt without
+     * allocating.
+     */
+    public void clear() {
+        store.clear();
+        root = NIL;
+    }
+
+    /**
+     * Inserts a key following binary search tree rules, then updates the heights and AVL values on the
+     * path up to the first ancestor whose height did not change.
+     *
+     * @param key The key to insert.
+     * @return The handle of the new node, or {@link #NIL} if the key is already in the tree.
+     */
+    public int insert(int key) {
+        if (root == NIL) {
+            root = store.allocate(key);
+            return root;
+        }
+        int localRoot = root;
+        while (true) {
+            int localKey = store.getKey(localRoot);
+            if (key == localKey) {
+                return NIL;
+            }
+            int next = key > localKey ? store.getRight(localRoot) : store.getLeft(localRoot);
+            if (next == NIL) {
+                break;
+            }
+            localRoot = next;
+        }
+        int node = store.allocate(key);
+        if (key > store.getKey(localRoot)) {
+            store.setRight(localRoot, node);
+        } else {
+            store.setLeft(localRoot, node);
+        }
+        store.setParent(node, localRoot);
+        updatePath(localRoot);
+        return node;
+    }
+
+    /**
+     * Performs a left rotation on a given pivot node.
+     *
+     * @param pivot The handle of the pivot node to rotate.
+     * @return The handle of the new root of the subtree, or {@link #NIL} if the pivot has no right child.
+     */
+    public int rotateLeft(int pivot) {
+        int x = store.getRight(pivot);
+        if (x == NIL) {
+            return NIL;
+        }
+        int middle = store.getLeft(x);
+        store.setRight(pivot, middle);
+        if (middle != NIL) {
+            store.setParent(middle, pivot);
+        }
+        replaceChild(pivot, x);
+        store.setLeft(x, pivot);
+        store.setParent(pivot, x);
+        updateAfterRotation(pivot, x);
+        return x;
+    }
+
+    /**
+     * Performs a right rotation on a given pivot node.
+     *
+     * @param pivot The handle of the pivot node to rotate.
+     * @return The handle of the new root of the subtree, or {@link #NIL} if the pivot has no left child.
+     */
+    public int rotateRight(int pivot) {
+        int x = store.getLeft(pivot);
+        if (x == NIL) {
+            return NIL;
+        }
+        int middle = store.getRight(x);
+        store.setLeft(pivot, middle);
+        if (middle != NIL) {
+            store.setParent(middle, pivot);
+        }
+        replaceChild(pivot, x);
+        store.setRight(x, pivot);
+        store.setParent(pivot, x);
+        updateAfterRotation(pivot, x);
+        return x;
+    }
+
+    /**
+     * Puts x where the pivot used to hang, either as the root or under the pivot's parent.
+     */
+    private void replaceChild(int pivot, int x) {
+        int parent = store.getParent(pivot);
+        if (parent == NIL) {
+            root = x;
+        } else if (store.getLeft(parent) == pivot) {
+            store.setLeft(parent, x);
+        } else {
+            store.setRight(parent, x);
+        }
+        store.setParent(x, parent);
+    }
+
+    private void updateAfterRotation(int pivot, int newRoot) {
+        int oldHeight = store.getHeight(pivot); // the pivot still holds the height of the whole subtree
+        updateAVLProperties(pivot);
+        updateAVLProperties(newRoot);
+        if (store.getHeight(newRoot) != oldHeight) {
+            updatePath(store.getParent(newRoot));
+        }
+    }
+
+    /**
+     * Recomputes a node whose children changed and walks up until a node's height is unchanged.
+     */
+    private void updatePath(int node) {
+        while (node != NIL) {
+            int oldHeight = store.getHeight(node);
+            updateAVLProperties(node);
+            if (store.getHeight(node) == oldHeight) {
+                return;
+            }
+            node = store.getParent(node);
+        }
+    }
+
+    private void updateAVLProperties(int node) {
+        int left = store.getLeft(node);
+        int right = store.getRight(node);
+        int leftHeight = left == NIL ? 0 : store.getHeight(left);
+        int rightHeight = right == NIL ? 0 : store.getHeight(right);
+        store.setHeight(node, 1 + Math.max(leftHeight, rightHeight));
+        store.setBalance(node, rightHeight - leftHeight);
+    }
+
+    /**
+     * Visits every node in top-down level order, the same order as {@link LevelIterator}. The queue is
+     * reused between calls, so iterating allocates nothing once it has grown to the size of the tree.
+     *
+     * @param action Called with the handle of each node.
+     */
+    public void forEachLevelOrder(IntConsumer action) {
+        if (root == NIL) {
+            return;
+        }
+        if (queue.length < store.size()) {
+            queue = new int[store.size()];
+        }
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = root;
+        while (head < tail) { // every node is queued once, so the queue never wraps
+            int node = queue[head++];
+            if (store.getLeft(node) != NIL) {
+                queue[tail++] = store.getLeft(node);
+            }
+            if (store.getRight(node) != NIL) {
+                queue[tail++] = store.getRight(node);
+            }
+            action.accept(node);
+        }
+    }
+
+    /**
+     * Returns the handle of the root node.
+     *
+     * @return The root handle, or {@link #NIL} if the tree is empty.
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return The number of nodes.
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Returns the store that holds the nodes, for reading keys, links, heights and AVL values by handle.
+     *
+     * @return The node store.
+     */
+    public NodeStore getStore() {
+        return store;
+    }
+}
@@ -0,0 +1,100 @@
+import java.util.Random;
+
+/**
+ * Decides which keys a {@link Workload} uses. A distribution keeps no state of its own: the key only
+ * depends on the random number generator and on how many keys were drawn before, so the same seed
+ * always gives the same keys.
+ */
+public interface KeyDistribution {
+
+    /**
+     * Draws a key.
+     *
+     * @param rand  The workload's seeded random number generator.
+     * @param index How many keys have been drawn before this one.
+     * @return The key.
+     */
+    int nextKey(Random rand, int index);
+
+    /**
+     * Keys spread evenly over a range.
+     *
+     * @param low  The smallest key.
+     * @param high One more than the largest key.
+     * @return The distribution.
+     */
+    static KeyDistribution uniform(int low, int high) {
+        return (rand, index) -> low + rand.nextInt(high - low);
+    }
+
+    /**
+     * Keys counting up from a start value, the worst case for a tree that does not rebalance.
+     *
+     * @param start The first key.
+     * @return The distribution.
+     */
+    static KeyDistribution ascending(int start) {
+        return (rand, index) -> start + index;
+    }
+
+    /**
+     * Keys counting down from a start value, the mirror image of {@link #ascending}.
+     *
+     * @param start The first key.
+     * @return The distribution.
+     */
+    static KeyDistribution descending(int start) {
+        return (rand, index) -> start - index;
+    }
+
+    /**
+     * Keys where the k-th smallest key in the range is drawn with a probability proportional to
+     * 1 / k^skew, so a few small keys are very hot and most keys are rare.
+     *
+     * @param low  The smallest (and most frequent) key.
+     * @param high One more than the largest key.
+     * @param skew How quickly the frequency falls off; 1 is the classic Zipf's law.
+     * @return The distribution.
+     */
+    static KeyDistribution zipfian(int low, int high, double skew) {
+        double[] cumulative = new double[high - low];
+        double total = 0;
+        for (int k = 0; k < cumulative.length; k++) {
+            total += 1 / Math.pow(k + 1, skew);
+            cumulative[k] = total;
+        }
+        double sum = total;
+        return (rand, index) -> {
+            double target = rand.nextDouble() * sum;
+            int lowIndex = 0; // binary search for the first cumulative weight above the target
+            int highIndex = cumulative.length - 1;
+            while (lowIndex < highIndex) {
+                int middle = (lowIndex + highIndex) >>> 1;
+                if (cumulative[middle] <= target) {
+                    lowIndex = middle + 1;
+                } else {
+                    highIndex = middle;
+                }
+            }
+            return low + lowIndex;
+        };
+    }
+
+    /**
+     * Keys bunched around evenly spaced centers in a range, with a normal spread around each center.
+     *
+     * @param low      The smallest key.
+     * @param high     One more than the largest key.
+     * @param clusters The number of clusters.
+     * @param spread   The standard deviation of the keys around their center.
+     * @return The distribution.
+     */
+    static KeyDistribution clustered(int low, int high, int clusters, double spread) {
+        return (rand, index) -> {
+            int cluster = rand.nextInt(clusters);
+            long center = low + (2L * cluster + 1) * (high - low) / (2L * clusters);
+            long key = center + Math.round(rand.nextGaussian() * spread);
+            return Math.clamp(key, low, high - 1);
+        };
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * Hands out the values for new nodes in a {@link Tree}. Every value a source hands out is different
+ * from the ones it handed out before, unless that value has been given back with {@link #release}.
+ */
+public interface KeySource {
+
+    /**
+     * Returns whether there are values left to hand out.
+     *
+     * @return True if {@link #next} can be called.
+     */
+    boolean hasNext();
+
+    /**
+     * Hands out a value that is not in use.
+     *
+     * @return The next value.
+     * @throws IllegalStateException if every value is in use.
+     */
+    int next();
+
+    /**
+     * Gives a value back so it can be handed out again, for example after its node has been removed.
+     * Values that are outside the source's range, or that are not in use, are ignored.
+     *
+     * @param key The value to give back.
+     */
+    void release(int key);
+}
@@ -2,17 +2,19 @@ import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.Queue;
 
-public class LevelIterator implements Iterator<Node> {
-    private Queue<Node> queue;
-    private Node current;
+public class LevelIterator implements Iterator<TreeNode> {
+    private Queue<TreeNode> queue;
+    private TreeNode current;
 
     /**
-     * An iterator that traverses the tree in level order.
+     * An iterator that traverses the tree in level order. An empty tree (a null root) has no nodes to visit.
      * @param root
      */
-    public LevelIterator(Node root) {
-        queue = new ArrayDeque<Node>();
-        queue.add(root);
+    public LevelIterator(TreeNode root) {
+        queue = new ArrayDeque<TreeNode>();
+        if (root != null) {
+            queue.add(root);
+        }
     }
 
     @Override
@@ -21,7 +23,7 @@ public class LevelIterator implements Iterator<Node> {
     }
 
     @Override
-    public Node next() {
+    public TreeNode next() {
         current = queue.poll();
         // add the children of the current node to the queue so they can be visited later.
         if (current.getLeft() != null) {
@@ -1,179 +1,259 @@
 import java.awt.Color;
-import edu.macalester.graphics.*;
 
 /**
- * Represents a node in a binary tree that stores integers. This class extends {@code GraphicsGroup}
- * for easy canvas interaction but does not rely on its hashcode as its position can change
- * dynamically. Each node maintains references to its left child, right child, parent, and several
- * properties like its data, height from the leaf, AVL value, and a unique ID.
+ * Draws a {@link TreeNode} on the canvas. The view does not paint itself: it owns a slot in a
+ * {@link TreeRenderer}, which paints every node in one pass, and it moves and colors the node by
+ * writing to that slot. The view holds no tree structure of its own: the links, data and AVL value
+ * are all read from the bound TreeNode, and its place comes from a {@link TreeLayout}, so a Tree can
+ * run without any views at all.
+ *
+ * <p>Views are only made for the nodes on screen. When a node goes out of view its view can be bound
+ * to another node, along with its slot, so the number of views stays about the number of nodes that
+ * fit on the canvas however big the tree is.
  */
-public class Node extends GraphicsGroup implements Comparable<Node> {
+public class Node {
     public static final int DIAMETER = 40;
+    // how far from the center of a node a click still selects it
+    public static final double HIT_RADIUS = (DIAMETER + 8) / 2;
+    // how close another node has to be to count as crowding this one: the reach of the old canvas probes
+    private static final double NEIGHBOR_REACH = 28 + HIT_RADIUS;
+    // once a node is this close to its target it jumps the rest of the way and stops, and a crowded
+    // node stops counting as moving once its steps are this small
+    private static final double SETTLE_DISTANCE = 0.5;
+
+    private TreeNode model;
+    private int shownAvlValue;
+    private int shownTreeSize = -1;
+    private Boolean shownRed;
+    private boolean collapsed;
+    private int shownSize;
+    private int shownHeight;
+    private int shownImbalance;
+    private double targetX;
+    private double targetY;
+    private int depth;
+    private double canvasWidth;
+    private int usedFrame;
+
+    private final TreeRenderer renderer;
+    private final int slot;
 
-    private Node left;
-    private Node right;
-    private Node parent;
-    private final int data;
-    private int heightFromLeaf;
-    private int avlValue;
-    private int id;
-
-    private Ellipse bubble;
-
-    private HitBox hitbox;
     /**
-     * Constructs a new Node with the specified integer value. Initializes the node with default child
-     * and parent references, sets the height from the leaf, and prepares graphical representation.
+     * Constructs a new view with a slot of its own in the renderer. The view draws nothing until it is
+     * bound to a tree node.
      * 
-     * @param value The integer value to store in the node.
+     * @param renderer The renderer that paints the node.
      */
-    public Node(int value) {
-        this.left = null;
-        this.right = null;
-        this.parent = null;
-        this.data = value;
-        this.heightFromLeaf = 1;
-        this.bubble = new Ellipse(0, 0, DIAMETER, DIAMETER);
-        this.id = -1;
-        initializeGraphics();
-        updateAVLProperties();
+    public Node(TreeRenderer renderer) {
+        this.renderer = renderer;
+        this.slot = renderer.allocate();
     }
 
     /**
-     * Compares this node with another node based on their integer values.
-     * 
-     * @param o The node to compare with.
-     * @return A negative integer, zero, or a positive integer as this node's value is less than, equal
-     *         to, or greater than the specified node's value.
+     * Makes this view draw the given tree node, forgetting everything it showed for the node it was
+     * bound to before. The node is placed at its target for the given canvas size.
+     *
+     * @param model   The tree node to draw.
+     * @param layoutX The node's horizontal position in the layout, as a fraction of the width.
+     * @param depth   The node's depth in the layout.
+     * @param width   The width of the canvas.
+     * @param height  The height of the canvas.
      */
-    @Override
-    public int compareTo(Node o) {
-        return this.data - o.getData();
+    public void bind(TreeNode model, double layoutX, int depth, double width, double height) {
+        this.model = model;
+        shownAvlValue = 0;
+        shownTreeSize = -1;
+        shownRed = null;
+        collapsed = false;
+        updateTarget(layoutX, depth, width, height);
+        renderer.bind(slot, model.getData(), targetX, targetY);
     }
 
     /**
-     * Finds the position of the node based on its unique ID according to top-down order for graphical
-     * placement.
-     * 
-     * @param id The unique ID of the node based on top-down order
-     * @return The Point representing the position of the node.
+     * Works out where in the world the node should be drawn from where a {@link TreeLayout} placed its
+     * model, and keeps it until the next call: the depth picks the row and the layout's x fraction
+     * picks the spot within it. Call this method whenever the layout or the canvas size changes.
+     *
+     * @param layoutX The node's horizontal position in the layout, as a fraction of the width.
+     * @param depth   The node's depth in the layout.
+     * @param width   The width of the canvas.
+     * @param height  The height of the canvas.
      */
-    private Point findPos(int id) {
-
-        // find depth of node by rounding down the log of the id
-        double y = Math.floor(log2(id + 1)) + 1.0;
-        // find position from left-most possible node in row, then divide by number of total possible nodes
-        double x = (id + 2.0 - Math.pow(2, y - 1)) / (Math.pow(2, y - 1) + 1) + 0.01;
+    public void updateTarget(double layoutX, int depth, double width, double height) {
+        this.depth = depth;
+        double x = layoutX + 0.01;
+        double y = depth + 1.0;
         // scale depth and x-position according to canvas width and height
-        return new Point(x, y).scale(getCanvas().getWidth() * 0.98, getCanvas().getHeight() / 10);
+        targetX = x * width * 0.98;
+        targetY = y * height / 10;
+        canvasWidth = width;
     }
 
     /**
-     * Calculates the base-2 logarithm of an integer.
-     * 
-     * @param N The integer value.
-     * @return The base-2 logarithm of N.
+     * Returns the depth of the row closest to a point in the world, undoing {@link #updateTarget}.
+     *
+     * @param y      The y coordinate in the world.
+     * @param height The height of the canvas.
+     * @return The depth of the closest row, which may be negative or deeper than the tree.
+     */
+    public static int depthAt(double y, double height) {
+        return (int) Math.round(y / (height / 10)) - 1;
+    }
+
+    /**
+     * Returns the layout x fraction of a point in the world, undoing {@link #updateTarget}.
+     *
+     * @param x     The x coordinate in the world.
+     * @param width The width of the canvas.
+     * @return The horizontal position as a fraction of the width.
      */
-    private static double log2(int N) {
-        return (Math.log(N) / Math.log(2));
+    public static double layoutXAt(double x, double width) {
+        return x / (width * 0.98) - 0.01;
     }
 
     /**
-     * Animates the node's movement to its new position.
+     * Returns the distance in the world between neighboring columns of the layout, as set by
+     * {@link #updateTarget}.
+     *
+     * @param width    The width of the canvas.
+     * @param treeSize The number of nodes in the tree.
+     * @return The width of one column.
+     */
+    public static double columnWidth(double width, int treeSize) {
+        return width * 0.98 / (treeSize + 1);
+    }
+
+    /**
+     * Animates the node's movement to the position set by the last {@link #updateTarget} call, moving
+     * it aside if it would crowd the nodes next to it on its level.
      * 
-     * @param dTime The time since the last frame in seconds.
+     * @param dTime         The time since the last frame in seconds.
+     * @param leftNeighbor  The view of the node to the left of this one on its level, or null.
+     * @param rightNeighbor The view of the node to the right of this one on its level, or null.
+     * @return True if the node moved this frame, false if it was at its target or only moved too little
+     *         to see.
      */
-    public void animate(double dTime) {
-        Point targetPos = findPos(this.id);
+    public boolean animate(double dTime, Node leftNeighbor, Node rightNeighbor) {
+        double x = getCenterX();
+        double y = getCenterY();
+        double goalX = targetX;
 
         // adjust the target position to avoid overlap with neighbors
-        if (this.id >= 31 && this.getCenter().distance(targetPos) < 80 * DIAMETER) {
-            Node leftNeighbor = findLeftNeighbor();
-            Node rightNeighbor = findRightNeighbor();
+        if (depth >= 5 && distanceTo(targetX, targetY) < 80 * DIAMETER) {
+            leftNeighbor = inReach(leftNeighbor);
+            rightNeighbor = inReach(rightNeighbor);
 
             if (leftNeighbor != null && rightNeighbor != null) { // node has both neighbors
                 // average the x position of the neighbors
-                double newX = leftNeighbor.getCenter().getX() + ((rightNeighbor.getCenter().getX() - leftNeighbor.getCenter().getX()) / 2);
-                targetPos = targetPos.withX(newX);
+                goalX = leftNeighbor.getCenterX() + ((rightNeighbor.getCenterX() - leftNeighbor.getCenterX()) / 2);
 
             } else if (leftNeighbor != null) { // node has a left neighbor
-                double newX = Math.max(leftNeighbor.getCenter().getX() + 48, DIAMETER / 2 + 2);
-                targetPos = targetPos.withX(Math.max(newX, targetPos.getX()));
+                double newX = Math.max(leftNeighbor.getCenterX() + 48, DIAMETER / 2 + 2);
+                goalX = Math.max(newX, goalX);
             } else if (rightNeighbor != null) { // node has a right neighbor
-                double newX = Math.min(rightNeighbor.getCenter().getX() - 48, this.getCanvas().getWidth() - DIAMETER / 2 - 2);
-                targetPos = targetPos.withX(Math.min(newX, targetPos.getX()));
+                double newX = Math.min(rightNeighbor.getCenterX() - 48, canvasWidth - DIAMETER / 2 - 2);
+                goalX = Math.min(newX, goalX);
             }
         }
-        this.setCenter(Point.interpolate(this.getCenter(), targetPos, 0.05));
+        double distance = distanceTo(goalX, targetY);
+        if (distance < SETTLE_DISTANCE) {
+            renderer.setCenter(slot, goalX, targetY);
+            return false;
+        }
+        renderer.setCenter(slot, x + (goalX - x) * 0.05, y + (targetY - y) * 0.05);
+        // a crowded node's goal follows its neighbors, so it may never be reached exactly; once its
+        // steps are too small to see, it no longer counts as moving
+        return goalX == targetX || distance * 0.05 >= SETTLE_DISTANCE;
     }
 
     /**
-     * Finds the left neighbor of the node on the canvas based on its position.
-     * Returns null if no neighbor is found, or if this node is not drawn on a canvas.
-     * @return
+     * Returns the neighbor if it is close enough to crowd this node, or null otherwise.
      */
-    private Node findLeftNeighbor() {
-        CanvasWindow canvas = this.getCanvas();
-        if (canvas == null) {
+    private Node inReach(Node neighbor) {
+        if (neighbor == null || distanceTo(neighbor.getCenterX(), neighbor.getCenterY()) > NEIGHBOR_REACH) {
             return null;
         }
-        Point[] testPoints = new Point[] {
-            this.getCenter().add(new Point(-28, 0)),
-            this.getCenter().add(new Point(-28, 0).rotate(7 * Math.PI / 4)),
-            this.getCenter().add(new Point(-28, 0).rotate(Math.PI / 4)),
-        };
-        for (Point testPoint : testPoints) {
-            GraphicsObject hitLeft = canvas.getElementAt(testPoint);
-            if (hitLeft instanceof HitBox) {
-                Node leftNeighbor = ((HitBox) hitLeft).getNode();
-                if (leftNeighbor.getData() < this.getData()) {
-                    return leftNeighbor;
-                } 
-            }
-        }
-        return null;
+        return neighbor;
     }
 
     /**
-     * Finds the right neighbor of the node on the canvas based on its position.
-     * Returns null if no neighbor is found, or if this node is not drawn on a canvas.
-     * @return
+     * Returns the distance from the center of this node to a point.
+     *
+     * @param x The x coordinate of the point.
+     * @param y The y coordinate of the point.
+     * @return The distance in pixels.
      */
-    private Node findRightNeighbor() {
-        CanvasWindow canvas = this.getCanvas();
-        if (canvas == null) {
-            return null;
-        }
-        Point[] testPoints = new Point[] {
-            this.getCenter().add(new Point(28, 0)),
-            this.getCenter().add(new Point(28, 0).rotate(7 * Math.PI / 4)),
-            this.getCenter().add(new Point(28, 0).rotate(Math.PI / 4))
-        };
-
-        for (Point testPoint : testPoints) {
-            GraphicsObject hitRight = canvas.getElementAt(testPoint);
-            if (hitRight instanceof HitBox) {
-                Node rightNeighbor = ((HitBox) hitRight).getNode();
-                if (rightNeighbor.getData() > this.getData()) {
-                    return rightNeighbor;
-                }
-            }
-        }
-        return null;
+    public double distanceTo(double x, double y) {
+        return Math.hypot(x - getCenterX(), y - getCenterY());
+    }
+
+    public double getCenterX() {
+        return renderer.getCenterX(slot);
+    }
+
+    public double getCenterY() {
+        return renderer.getCenterY(slot);
+    }
+
+    /**
+     * Returns the x coordinate on the canvas of the left edge of the bubble, as seen through the
+     * renderer's camera.
+     */
+    public double getX() {
+        Camera camera = renderer.getCamera();
+        return camera.toScreenX(getCenterX() - DIAMETER / 2);
+    }
+
+    /**
+     * Returns the y coordinate on the canvas of the top edge of the bubble, as seen through the
+     * renderer's camera.
+     */
+    public double getY() {
+        Camera camera = renderer.getCamera();
+        return camera.toScreenY(getCenterY() - DIAMETER / 2);
+    }
+
+    /**
+     * Moves the node straight to its target, for nodes that would only move out of sight.
+     */
+    public void jumpToTarget() {
+        renderer.setCenter(slot, targetX, targetY);
+    }
+
+    /**
+     * Records the number of the frame this view was last needed in.
+     *
+     * @param frame The frame number.
+     */
+    public void setUsedFrame(int frame) {
+        usedFrame = frame;
+    }
+
+    public int getUsedFrame() {
+        return usedFrame;
+    }
+
+    /**
+     * Returns the slot of this node in its renderer.
+     *
+     * @return The slot index.
+     */
+    public int getSlot() {
+        return slot;
     }
 
     /**
      * styles the bubble to show that it has been selected
      */
     public void selectNode() {
-        this.bubble.setStrokeWidth(6);
+        renderer.setSelected(slot, true);
     }
 
     /**
      * styles the bubble to show that it is not selected
      */
     public void unselectNode() {
-        this.bubble.setStrokeWidth(1);
+        renderer.setSelected(slot, false);
     }
 
     /**
@@ -187,141 +267,143 @@ public class Node extends GraphicsGroup implements Comparable<Node> {
         balance = Math.clamp(balance, -1, 1);
 
         if (balance > 0) {
-            bubble.setFillColor(Color.getHSBColor(purpleHue, (float) balance, 1f));
+            renderer.setFill(slot, Color.getHSBColor(purpleHue, (float) balance, 1f));
         } else if (balance < 0) {
-            bubble.setFillColor(Color.getHSBColor(yellowHue, (float) balance * -1, 1f));
+            renderer.setFill(slot, Color.getHSBColor(yellowHue, (float) balance * -1, 1f));
         } else {
-            bubble.setFillColor(Color.white);
+            renderer.setFill(slot, Color.white);
         }
     }
 
 
     /**
-     * Returns a string representation of the node and its children, using preorder traversal.
+     * Colors the bubble red or black to match the model's red-black color.
      */
-    @Override
-    public String toString() {
-        return "Data: " + Integer.toString(data) + "ID: " + Integer.toString(id);
-    }
-
-    public void setHeightFromLeaf(int height) {
-        this.heightFromLeaf = height;
-    }
-
-    public int getHeightFromLeaf() {
-        return this.heightFromLeaf;
+    private void updateRedBlackColor() {
+        boolean red = model.isRed();
+        if (shownRed != null && shownRed == red) {
+            return;
+        }
+        shownRed = red;
+        shownTreeSize = -1; // the AVL colors have to be redone if the tree stops being red-black
+        renderer.setFill(slot, red ? Color.RED : Color.BLACK);
+        renderer.setLabelColor(slot, Color.WHITE);
     }
 
     /**
-     * Updates the AVL value, height from leaf, using the properties of its children. This method should
-     * be called on children before the parent.
+     * Recolors the bubble from the AVL value of the model, scaled by half the size of the tree, or
+     * shows its red-black color instead. Does nothing if nothing shown has changed since the bubble was
+     * last colored.
+     *
+     * @param treeSize The number of nodes in the tree.
+     * @param redBlack Whether the tree is balanced as a red-black tree.
      */
-    public void updateAVLProperties() {
-        int leftHeight = 0;
-        int rightHeight = 0;
-        if (this.left != null) {
-            leftHeight = left.getHeightFromLeaf();
+    public void refreshColor(int treeSize, boolean redBlack) {
+        if (redBlack) {
+            updateRedBlackColor();
+            return;
         }
-        if (this.right != null) {
-            rightHeight = right.getHeightFromLeaf();
+        int avlValue = model.getAvlValue();
+        if (avlValue == shownAvlValue && treeSize == shownTreeSize) {
+            return;
+        }
+        if (shownRed != null) {
+            shownRed = null;
+            renderer.setLabelColor(slot, Color.BLACK);
+        }
+        shownAvlValue = avlValue;
+        shownTreeSize = treeSize;
+        double maxValue = treeSize / 2;
+        if (avlValue == 1 || avlValue == -1) {
+            updateColor(0);
+        } else {
+            updateColor(avlValue / maxValue);
         }
-        // Height of a node is 1 + max height of its children
-        int height = 1 + Math.max(leftHeight, rightHeight);
-        int avlValue = rightHeight - leftHeight;
-        this.heightFromLeaf = height;
-        this.avlValue = avlValue;
-    }
-
-    public void setAVLValue(int value) {
-        this.avlValue = value;
-    }
-
-    /**
-     * Assigns a unique ID to this node and updates its graphical position.
-     * 
-     * @param id The unique ID to set.
-     */
-    public void setId(int id) {
-        this.id = id;
     }
 
     /**
-     * Returns the unique ID of this node.
-     * 
-     * @return The node's unique ID.
+     * Draws this node either as a bubble or as a summary of its whole subtree, showing the number of
+     * nodes, the height and the worst AVL value in it. The summary comes straight from the model's
+     * subtree values, so it costs the same however big the subtree is, and its text is only rebuilt
+     * when one of them changes. Shorter texts are given too, for when the subtree's columns are too
+     * narrow for the whole line.
+     *
+     * @param collapse    Whether to draw the subtree as a summary.
+     * @param columnWidth The width of one column of the layout in the world, as given by
+     *                    {@link #columnWidth}.
      */
-    public int getId() {
-        return id;
+    public void setCollapsed(boolean collapse, double columnWidth) {
+        if (!collapse) {
+            if (collapsed) {
+                collapsed = false;
+                renderer.clearSummary(slot);
+            }
+            return;
+        }
+        // the subtree's columns reach half a column past its first and last node
+        renderer.setSummarySpan(slot, (sizeOf(model.getLeft()) + 0.5) * columnWidth,
+            (sizeOf(model.getRight()) + 0.5) * columnWidth);
+        int size = model.getSubtreeSize();
+        int height = model.getHeightFromLeaf();
+        int imbalance = model.getMaxImbalance();
+        if (collapsed && size == shownSize && height == shownHeight && imbalance == shownImbalance) {
+            return;
+        }
+        collapsed = true;
+        shownSize = size;
+        shownHeight = height;
+        shownImbalance = imbalance;
+        // the worse the imbalance somewhere in the subtree, the redder the box
+        Color fill = imbalance <= 1 ? Color.WHITE : Color.getHSBColor(0, Math.min(1, (imbalance - 1) / 4f), 1f);
+        String[] texts = {size + " nodes, height " + height + ", worst " + imbalance, size + " nodes", Integer.toString(size)};
+        renderer.setSummary(slot, texts, fill);
     }
 
-    public int getAvlValue() {
-        return avlValue;
+    private static int sizeOf(TreeNode node) {
+        return node == null ? 0 : node.getSubtreeSize();
     }
 
     /**
-     * Returns the left child of this node.
-     * 
-     * @return The left child node.
+     * Returns whether this node is drawn as a summary of its subtree.
+     *
+     * @return True if the subtree is collapsed.
      */
-    public Node getLeft() {
-        return left;
+    public boolean isCollapsed() {
+        return collapsed;
     }
 
     /**
-     * Sets the left child of this node.
-     * 
-     * @param newLeft The node to set as the left child.
+     * Returns whether this node was drawn in the last frame, either as a bubble or as a summary.
+     *
+     * @return True if the node is on screen.
      */
-    public void setLeft(Node newLeft) {
-        this.left = newLeft;
+    public boolean isShown() {
+        return renderer.isShown(slot);
     }
 
     /**
-     * Returns the right child of this node.
-     * 
-     * @return The right child node.
+     * Returns a string representation of the node this view is bound to.
      */
-    public Node getRight() {
-        return right;
+    @Override
+    public String toString() {
+        return model.toString();
     }
 
     /**
-     * Sets the right child of this node.
-     * 
-     * @param newRight The node to set as the right child.
+     * Returns the tree node that this view draws.
+     *
+     * @return The bound tree node.
      */
-    public void setRight(Node newRight) {
-        this.right = newRight;
-    }
-
-    public Node getParent() {
-        return parent;
-    }
-    public void setParent(Node newParent) {
-        this.parent = newParent;
+    public TreeNode getModel() {
+        return model;
     }
 
     /**
-     * Returns the integer data stored in this node.
-     * 
+     * Returns the integer data stored in the bound tree node.
+     *
      * @return The data stored in the node.
      */
     public int getData() {
-        return data;
-    }
-
-    // Called once by the constructor.
-    /**
-     * Initializes the graphical representation of the node with a circle and its data label.
-     */
-    private void initializeGraphics() {
-        bubble.setFillColor(null);
-        bubble.setStrokeColor(Color.BLACK);
-        this.add(bubble);
-        GraphicsText text = new GraphicsText(Integer.toString(data), DIAMETER / 2, DIAMETER / 2 + 4);
-        text.setAlignment(TextAlignment.CENTER);
-        this.add(text);
-        hitbox = new HitBox(this);
-        this.add(hitbox);
+        return model.getData();
     }
 }
@@ -0,0 +1,50 @@
+/**
+ * Holds the nodes of a {@link CompactTree} as fixed-size records addressed by int handles instead of
+ * as objects. Each record has a key, links to its left child, right child and parent, a height from
+ * the leaf and an AVL value. A missing link is stored as {@link #NIL}.
+ */
+public interface NodeStore {
+    int NIL = -1;
+
+    /**
+     * Creates a new leaf record holding the given key, growing the store if it is full.
+     *
+     * @param key The key to store.
+     * @return The handle of the new record.
+     */
+    int allocate(int key);
+
+    /**
+     * Returns the number of records that have been allocated.
+     *
+     * @return The number of records.
+     */
+    int size();
+
+    /**
+     * Removes every record. Handles that were handed out before are no longer valid.
+     */
+    void clear();
+
+    int getKey(int node);
+
+    int getLeft(int node);
+
+    void setLeft(int node, int left);
+
+    int getRight(int node);
+
+    void setRight(int node, int right);
+
+    int getParent(int node);
+
+    void setParent(int node, int parent);
+
+    int getHeight(int node);
+
+    void setHeight(int node, int height);
+
+    int getBalance(int node);
+
+    void setBalance(int node, int balance);
+}
@@ -0,0 +1,160 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * A {@link NodeStore} that keeps its records outside the Java heap, in direct byte buffers. The store
+ * grows one fixed-size chunk at a time, so growing never copies the records that are already there,
+ * and the garbage collector only ever sees the handful of chunk objects no matter how big the tree is.
+ */
+public class OffHeapNodeStore implements NodeStore {
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+    // byte offsets of the fields within a record
+    private static final int KEY = 0;
+    private static final int LEFT = 4;
+    private static final int RIGHT = 8;
+    private static final int PARENT = 12;
+    private static final int HEIGHT = 16;
+    private static final int BALANCE = 20;
+    private static final int RECORD_BYTES = 24;
+    // the largest power of two whose records still fit in one byte buffer
+    public static final int MAX_CHUNK_SIZE = Integer.highestOneBit(Integer.MAX_VALUE / RECORD_BYTES);
+
+    private final int chunkShift;
+    private final int chunkMask;
+    private ByteBuffer[] chunks = new ByteBuffer[4];
+    private int chunkCount;
+    private int size;
+
+    /**
+     * Constructs an empty store that grows in chunks of {@link #DEFAULT_CHUNK_SIZE} records.
+     */
+    public OffHeapNodeStore() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Constructs an empty store that grows in chunks of the given number of records.
+     *
+     * @param chunkSize The number of records per chunk. Must be a power of two no larger than
+     *                  {@link #MAX_CHUNK_SIZE}.
+     */
+    public OffHeapNodeStore(int chunkSize) {
+        if (chunkSize <= 0 || Integer.bitCount(chunkSize) != 1) {
+            throw new IllegalArgumentException("Chunk size must be a power of two, not " + chunkSize);
+        }
+        if (chunkSize > MAX_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at most " + MAX_CHUNK_SIZE + ", not " + chunkSize);
+        }
+        this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+        this.chunkMask = chunkSize - 1;
+    }
+
+    @Override
+    public int allocate(int key) {
+        int node = size;
+        if ((node >>> chunkShift) == chunkCount) {
+            addChunk();
+        }
+        size++;
+        ByteBuffer chunk = chunkOf(node);
+        int offset = offsetOf(node);
+        chunk.putInt(offset + KEY, key);
+        chunk.putInt(offset + LEFT, NIL);
+        chunk.putInt(offset + RIGHT, NIL);
+        chunk.putInt(offset + PARENT, NIL);
+        chunk.putInt(offset + HEIGHT, 1);
+        chunk.putInt(offset + BALANCE, 0);
+        return node;
+    }
+
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, chunks.length * 2);
+        }
+        chunks[chunkCount++] = ByteBuffer.allocateDirect((chunkMask + 1) * RECORD_BYTES)
+            .order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer chunkOf(int node) {
+        return chunks[node >>> chunkShift];
+    }
+
+    private int offsetOf(int node) {
+        return (node & chunkMask) * RECORD_BYTES;
+    }
+
+    private int getField(int node, int field) {
+        return chunkOf(node).getInt(offsetOf(node) + field);
+    }
+
+    private void setField(int node, int field, int value) {
+        chunkOf(node).putInt(offsetOf(node) + field, value);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void clear() {
+        size = 0; // the chunks are kept and overwritten as the tree is rebuilt
+    }
+
+    @Override
+    public int getKey(int node) {
+        return getField(node, KEY);
+    }
+
+    @Override
+    public int getLeft(int node) {
+        return getField(node, LEFT);
+    }
+
+    @Override
+    public void setLeft(int node, int left) {
+        setField(node, LEFT, left);
+    }
+
+    @Override
+    public int getRight(int node) {
+        return getField(node, RIGHT);
+    }
+
+    @Override
+    public void setRight(int node, int right) {
+        setField(node, RIGHT, right);
+    }
+
+    @Override
+    public int getParent(int node) {
+        return getField(node, PARENT);
+    }
+
+    @Override
+    public void setParent(int node, int parent) {
+        setField(node, PARENT, parent);
+    }
+
+    @Override
+    public int getHeight(int node) {
+        return getField(node, HEIGHT);
+    }
+
+    @Override
+    public void setHeight(int node, int height) {
+        setField(node, HEIGHT, height);
+    }
+
+    @Override
+    public int getBalance(int node) {
+        return getField(node, BALANCE);
+    }
+
+    @Override
+    public void setBalance(int node, int balance) {
+        setField(node, BALANCE, balance);
+    }
+}
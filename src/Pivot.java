@@ -75,10 +75,10 @@ public class Pivot extends GraphicsGroup {
      * selected.
      */
     private void showRotateButtons() {
-        if (selectedNode.getLeft() != null) {
+        if (selectedNode.getModel().getLeft() != null) {
             right.setPosition(selectedNode.getX() + Node.DIAMETER, selectedNode.getY());
         }
-        if (selectedNode.getRight() != null) {
+        if (selectedNode.getModel().getRight() != null) {
             left.setPosition(selectedNode.getX() - 110, selectedNode.getY());
         }
     }
@@ -0,0 +1,201 @@
+/**
+ * Keeps a tree red-black balanced. The balance is looser than AVL (the longest path may be twice the
+ * shortest), but an insert needs at most two rotations, a removal at most three, and most changes only
+ * recolor nodes. The colors are kept in {@link TreeNode#isRed()}. A tree that had no colors when this
+ * strategy was given to it is colored from scratch in {@link #afterRebuild}.
+ */
+public class RedBlackBalancer implements BalancingStrategy {
+
+    /**
+     * Colors the new node red, then recolors and rotates upwards until no red node has a red parent.
+     */
+    @Override
+    public void afterInsert(Tree tree, TreeNode node) {
+        node.setRed(true);
+        while (node.getParent() != null && node.getParent().isRed()) {
+            TreeNode parent = node.getParent();
+            TreeNode grandparent = parent.getParent(); // a red parent is never the root
+            if (parent == grandparent.getLeft()) {
+                TreeNode uncle = grandparent.getRight();
+                if (uncle != null && uncle.isRed()) { // push the blackness down from the grandparent
+                    parent.setRed(false);
+                    uncle.setRed(false);
+                    grandparent.setRed(true);
+                    node = grandparent;
+                    continue;
+                }
+                if (node == parent.getRight()) { // turn the inner case into the outer case
+                    tree.rotateLeft(parent);
+                    parent = node;
+                }
+                parent.setRed(false);
+                grandparent.setRed(true);
+                tree.rotateRight(grandparent);
+            } else {
+                TreeNode uncle = grandparent.getLeft();
+                if (uncle != null && uncle.isRed()) {
+                    parent.setRed(false);
+                    uncle.setRed(false);
+                    grandparent.setRed(true);
+                    node = grandparent;
+                    continue;
+                }
+                if (node == parent.getLeft()) {
+                    tree.rotateRight(parent);
+                    parent = node;
+                }
+                parent.setRed(false);
+                grandparent.setRed(true);
+                tree.rotateLeft(grandparent);
+            }
+            break;
+        }
+        tree.getRoot().setRed(false);
+    }
+
+    /**
+     * If a black node left the emptied spot, that side of the parent is one black node short. The
+     * shortage is pushed up by recoloring the sibling, or fixed with rotations around the parent.
+     */
+    @Override
+    public void afterRemove(Tree tree, TreeNode parent, TreeNode child, boolean removedRed) {
+        if (removedRed) {
+            return;
+        }
+        TreeNode node = child;
+        while (parent != null && !isRed(node)) {
+            if (node == parent.getLeft()) {
+                TreeNode sibling = parent.getRight(); // the short side has a sibling with black nodes
+                if (sibling.isRed()) { // make the sibling black so the cases below apply
+                    sibling.setRed(false);
+                    parent.setRed(true);
+                    tree.rotateLeft(parent);
+                    sibling = parent.getRight();
+                }
+                if (!isRed(sibling.getLeft()) && !isRed(sibling.getRight())) {
+                    sibling.setRed(true);
+                    node = parent;
+                    parent = node.getParent();
+                    continue;
+                }
+                if (!isRed(sibling.getRight())) {
+                    sibling.getLeft().setRed(false);
+                    sibling.setRed(true);
+                    tree.rotateRight(sibling);
+                    sibling = parent.getRight();
+                }
+                sibling.setRed(parent.isRed());
+                parent.setRed(false);
+                sibling.getRight().setRed(false);
+                tree.rotateLeft(parent);
+            } else {
+                TreeNode sibling = parent.getLeft();
+                if (sibling.isRed()) {
+                    sibling.setRed(false);
+                    parent.setRed(true);
+                    tree.rotateRight(parent);
+                    sibling = parent.getLeft();
+                }
+                if (!isRed(sibling.getLeft()) && !isRed(sibling.getRight())) {
+                    sibling.setRed(true);
+                    node = parent;
+                    parent = node.getParent();
+                    continue;
+                }
+                if (!isRed(sibling.getLeft())) {
+                    sibling.getRight().setRed(false);
+                    sibling.setRed(true);
+                    tree.rotateLeft(sibling);
+                    sibling = parent.getLeft();
+                }
+                sibling.setRed(parent.isRed());
+                parent.setRed(false);
+                sibling.getLeft().setRed(false);
+                tree.rotateRight(parent);
+            }
+            node = tree.getRoot();
+            break;
+        }
+        if (node != null) {
+            node.setRed(false);
+        }
+    }
+
+    /**
+     * Colors the tree from scratch. When every empty child spot is within one level of the others, the
+     * nodes on the level of the shallowest empty spot are colored red and the rest black: every path
+     * then has the same number of black nodes, and the red nodes are leaves. Any other tree is
+     * rebalanced into a complete tree first, which brings it back here.
+     */
+    @Override
+    public void afterRebuild(Tree tree) {
+        TreeNode root = tree.getRoot();
+        if (root == null) {
+            return;
+        }
+        int redDepth = shallowestEmptyDepth(root);
+        if (root.getHeightFromLeaf() > redDepth + 1) { // the deepest empty spot is at the root's height
+            tree.rebalance();
+            return;
+        }
+        TreeNode previous = null;
+        TreeNode node = root;
+        int depth = 0;
+        while (node != null) { // a pre-order walk along the parent links, keeping count of the depth
+            TreeNode next;
+            if (previous == node.getParent()) { // arrived from above
+                node.setRed(depth == redDepth);
+                next = node.getLeft() != null ? node.getLeft() : node.getRight();
+            } else if (previous == node.getLeft()) { // finished the left subtree
+                next = node.getRight();
+            } else { // finished the right subtree
+                next = null;
+            }
+            if (next == null) {
+                next = node.getParent();
+                depth--;
+            } else {
+                depth++;
+            }
+            previous = node;
+            node = next;
+        }
+    }
+
+    /**
+     * Returns the depth of the shallowest missing child, found without recursing so that deep trees
+     * don't overflow the stack.
+     */
+    private static int shallowestEmptyDepth(TreeNode root) {
+        int shallowest = Integer.MAX_VALUE;
+        TreeNode previous = null;
+        TreeNode node = root;
+        int depth = 0;
+        while (node != null) {
+            TreeNode next;
+            if (previous == node.getParent()) {
+                if (node.getLeft() == null || node.getRight() == null) {
+                    shallowest = Math.min(shallowest, depth + 1);
+                }
+                next = node.getLeft() != null ? node.getLeft() : node.getRight();
+            } else if (previous == node.getLeft()) {
+                next = node.getRight();
+            } else {
+                next = null;
+            }
+            if (next == null) {
+                next = node.getParent();
+                depth--;
+            } else {
+                depth++;
+            }
+            previous = node;
+            node = next;
+        }
+        return shallowest;
+    }
+
+    private static boolean isRed(TreeNode node) {
+        return node != null && node.isRed();
+    }
+}
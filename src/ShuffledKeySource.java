@@ -0,0 +1,94 @@
+import java.util.Random;
+
+/**
+ * Hands out the values in a range in random order, in O(1) per value. The range is kept as an array
+ * that is shuffled one step at a time (a lazy Fisher-Yates shuffle): the front of the array holds the
+ * values in use and the back holds the ones still free, so no value is ever drawn twice and there is
+ * no retrying. A second array records where each value sits so it can be released in O(1) too.
+ *
+ * <p>Both arrays are made up front with one entry per value in the range, so the memory used grows
+ * with the size of the range (8 bytes per value), not with the number of values handed out.
+ */
+public class ShuffledKeySource implements KeySource {
+    // the most values a source can cover, which takes 512 MB for the two arrays
+    public static final int MAX_RANGE = 1 << 26;
+
+    private final int low;
+    private final int[] keys;
+    private final int[] positions;
+    private final Random rand;
+    private int used;
+
+    /**
+     * Constructs a source for the values from low (inclusive) to high (exclusive). The range may hold
+     * at most {@link #MAX_RANGE} values.
+     *
+     * @param low  The smallest value to hand out.
+     * @param high One more than the largest value to hand out.
+     * @param rand The random number generator that decides the order.
+     * @throws IllegalArgumentException if the range is empty or holds more than {@link #MAX_RANGE} values.
+     */
+    public ShuffledKeySource(int low, int high, Random rand) {
+        if (high <= low) {
+            throw new IllegalArgumentException("The range " + low + " to " + high + " is empty");
+        }
+        if ((long) high - low > MAX_RANGE) {
+            throw new IllegalArgumentException("The range " + low + " to " + high + " holds more than " + MAX_RANGE + " values");
+        }
+        this.low = low;
+        this.rand = rand;
+        keys = new int[high - low];
+        positions = new int[high - low];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = low + i;
+            positions[i] = i;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return used < keys.length;
+    }
+
+    @Override
+    public int next() {
+        if (!hasNext()) {
+            throw new IllegalStateException("All " + keys.length + " values are in use");
+        }
+        swap(used, used + rand.nextInt(keys.length - used));
+        return keys[used++];
+    }
+
+    @Override
+    public void release(int key) {
+        int offset = key - low;
+        if (offset < 0 || offset >= keys.length || positions[offset] >= used) {
+            return;
+        }
+        used--;
+        swap(positions[offset], used);
+    }
+
+    /**
+     * Marks a value as in use without handing it out, for values already in the tree when the source
+     * is made. Values outside the range, or already in use, are ignored.
+     *
+     * @param key The value to mark.
+     */
+    public void reserve(int key) {
+        int offset = key - low;
+        if (offset < 0 || offset >= keys.length || positions[offset] < used) {
+            return;
+        }
+        swap(positions[offset], used);
+        used++;
+    }
+
+    private void swap(int i, int j) {
+        int key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        positions[keys[i] - low] = i;
+        positions[keys[j] - low] = j;
+    }
+}
@@ -1,30 +1,160 @@
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Random;
 import java.util.Set;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
 
 
 /**
  * Represents a binary search tree that stores unique random integers. Provides methods for tree
- * construction, node insertion, and AVL tree rotations.
+ * construction, node insertion, and AVL tree rotations. The tree is built from {@link TreeNode}s
+ * only and never touches the canvas, so it can be used without a Visualizer.
  */
 public class Tree {
+    public static final int DEFAULT_KEY_RANGE = 100;
 
-    private Node root;
-    private Set<Integer> allValues;
-    private boolean needsUpdate = true;
+    private TreeNode root;
+    private KeySource keys;
+    private int nodeCount;
+    private boolean verifyUpdates = false;
+    private BalancingStrategy balancing;
+    private int rotationCount;
+    private long structureVersion;
+    private final Deque<TreeNode> insertPath = new ArrayDeque<>();
 
     /**
      * Constructs a Tree with the specified size. Initializes the tree with unique random integers.
+     * Inserts do not rebalance the tree, so the user can balance it by hand.
      *
      * @param size The number of nodes to include in the tree.
+     * @throws IllegalArgumentException if the size is more than {@link ShuffledKeySource#MAX_RANGE}.
      */
     public Tree(int size) {
-        allValues = new HashSet<>();
-        root = makeNewNode();
-        root.setId(0);
-        makeTree(size);
+        this(size, null);
+    }
+
+    /**
+     * Constructs a Tree with the specified size. Initializes the tree with unique random integers from
+     * 0 up to {@link #DEFAULT_KEY_RANGE}, or up to twice the size if that is larger, so that there are
+     * values left for {@link #addRandomNode}.
+     *
+     * @param size      The number of nodes to include in the tree.
+     * @param balancing How inserts rebalance the tree, or null to never rebalance.
+     * @throws IllegalArgumentException if the size is more than {@link ShuffledKeySource#MAX_RANGE};
+     *                                  pass a {@link KeySource} to make larger trees.
+     */
+    public Tree(int size, BalancingStrategy balancing) {
+        this(size, balancing, defaultKeySource(size));
+    }
+
+    /**
+     * Constructs a Tree with the specified size, taking the values of its nodes from the given source.
+     *
+     * @param size      The number of nodes to include in the tree. A size of 0 makes an empty tree.
+     * @param balancing How inserts rebalance the tree, or null to never rebalance.
+     * @param keys      The source of values for new nodes.
+     * @throws IllegalStateException if the source runs out of values before the tree is full.
+     */
+    public Tree(int size, BalancingStrategy balancing, KeySource keys) {
+        this.balancing = balancing;
+        this.keys = keys;
+        if (size > 0) {
+            root = new TreeNode(keys.next());
+            nodeCount = 1;
+            if (balancing != null) {
+                balancing.afterInsert(this, root);
+            }
+            makeTree(size);
+        }
+    }
+
+    /**
+     * Constructs an empty Tree for the factory methods, which set the root and the key source
+     * themselves.
+     */
+    private Tree() {
+    }
+
+    private static ShuffledKeySource defaultKeySource(int size) {
+        if (size > ShuffledKeySource.MAX_RANGE) {
+            throw new IllegalArgumentException("A random tree can hold at most " + ShuffledKeySource.MAX_RANGE + " nodes");
+        }
+        int high = (int) Math.min(ShuffledKeySource.MAX_RANGE, Math.max(DEFAULT_KEY_RANGE, 2L * size));
+        return new ShuffledKeySource(0, high, new Random());
+    }
+
+    /**
+     * Makes a source for a tree that was loaded without one. It covers at least twice as many values
+     * as the tree holds, up to {@link ShuffledKeySource#MAX_RANGE}, and the values already in the tree
+     * are marked as in use so they are never drawn.
+     */
+    private ShuffledKeySource keySourceForLoadedKeys() {
+        int high = (int) Math.min(ShuffledKeySource.MAX_RANGE, Math.max(DEFAULT_KEY_RANGE, 2L * nodeCount));
+        ShuffledKeySource source = new ShuffledKeySource(0, high, new Random());
+        range(0, high - 1, source::reserve);
+        return source;
+    }
+
+    /**
+     * Builds a height-balanced tree from keys in ascending order in O(n). The middle key becomes the
+     * root and each half becomes a subtree, so every node's AVL value is -1, 0 or 1. Heights, AVL values
+     * and subtree sizes are all set while the tree is built, so no sweep is needed afterwards. The tree does not
+     * rebalance itself; pass a strategy to {@link #setBalancing} to keep it balanced. No key source is
+     * made here; the first {@link #addRandomNode} makes one, unless {@link #setKeySource} was called.
+     *
+     * @param keys The keys to store, strictly ascending. With no keys the tree is empty.
+     * @return A new balanced tree holding the keys.
+     * @throws IllegalArgumentException if the keys are not strictly ascending.
+     */
+    public static Tree fromSorted(int[] keys) {
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i] <= keys[i - 1]) {
+                throw new IllegalArgumentException("Keys are not strictly ascending at index " + i);
+            }
+        }
+        Tree tree = new Tree();
+        tree.root = tree.buildBalanced(keys, 0, keys.length - 1);
+        return tree;
+    }
+
+    /**
+     * Builds a height-balanced tree from a stream of keys in ascending order.
+     *
+     * @param keys The keys to store, strictly ascending.
+     * @return A new balanced tree holding the keys.
+     * @see #fromSorted(int[])
+     */
+    public static Tree fromSorted(IntStream keys) {
+        return fromSorted(keys.toArray());
+    }
+
+    /**
+     * Builds the subtree holding keys[low..high] and returns its root. The recursion only goes as deep
+     * as the finished tree, which is log2(n).
+     */
+    private TreeNode buildBalanced(int[] keys, int low, int high) {
+        if (low > high) {
+            return null;
+        }
+        int middle = (low + high) >>> 1;
+        TreeNode node = new TreeNode(keys[middle]);
+        nodeCount++;
+        TreeNode left = buildBalanced(keys, low, middle - 1);
+        TreeNode right = buildBalanced(keys, middle + 1, high);
+        node.setLeft(left);
+        node.setRight(right);
+        if (left != null) {
+            left.setParent(node);
+        }
+        if (right != null) {
+            right.setParent(node);
+        }
+        node.updateAVLProperties();
+        return node;
     }
 
     /**
@@ -33,99 +163,599 @@ public class Tree {
      * @param size The desired number of nodes in the tree.
      */
     private void makeTree(int size) {
-        while (allValues.size() < size) {
-            Node newNode = makeNewNode();
-            insertNode(root, newNode);
+        if (balancing != null) {
+            while (nodeCount < size) {
+                addRandomNode();
+            }
+            return;
+        }
+        while (nodeCount < size) {
+            if (insertNode(new TreeNode(keys.next())) != null) {
+                nodeCount++;
+            }
         }
-        needsUpdate = true;
         updateNodes();
     }
 
-    public Node addRandomNode() {
-        Node newNode = makeNewNode();
-        insertNode(root, newNode);
-        needsUpdate = true;
-        updateNodes();
+    /**
+     * Inserts a new node with a unique value from the key source. Only the heights, AVL values and
+     * subtree sizes on the path from the new node up to the root are updated. A tree made by
+     * {@link #fromSorted} gets its key source on the first call.
+     *
+     * @return The newly inserted node.
+     * @throws IllegalStateException if the key source has no unused values left.
+     */
+    public TreeNode addRandomNode() {
+        if (keys == null) {
+            keys = keySourceForLoadedKeys();
+        }
+        while (true) {
+            TreeNode inserted = insertNewNode(new TreeNode(keys.next()));
+            if (inserted != null) {
+                return inserted;
+            }
+            // the value was inserted with insert(), or was in the tree before setKeySource, so draw again
+        }
+    }
+
+    /**
+     * Inserts a node with the given value, unless the value is already in the tree.
+     *
+     * @param value The value to insert.
+     * @return The newly inserted node, or null if the value was already in the tree.
+     */
+    public TreeNode insert(int value) {
+        return insertNewNode(new TreeNode(value));
+    }
+
+    /**
+     * Links a new node into the tree, updates the changed path and lets the balancing strategy, if
+     * there is one, repair the tree. Finding the spot for the node also finds out whether its value is
+     * already in the tree, so no separate search is needed.
+     *
+     * @param newNode The node to insert.
+     * @return The inserted node, or null if its value was already in the tree.
+     */
+    private TreeNode insertNewNode(TreeNode newNode) {
+        Deque<TreeNode> path = insertNode(newNode);
+        if (path == null) {
+            return null;
+        }
+        nodeCount++;
+        while (!path.isEmpty()) { // the parent comes off the path first, the root last
+            path.pop().updateAVLProperties();
+        }
+        verifyIfEnabled();
+        if (balancing != null) {
+            balancing.afterInsert(this, newNode);
+        }
         return newNode;
     }
 
     /**
-     * Updates the AVL properties of each node in the tree. This method should be called after any
-     * tree modification to ensure the AVL values are accurate.
+     * Removes the node with the given value. A node with two children is replaced by its in-order
+     * successor, which is relinked into its place, so no node changes its value. Only the heights, AVL
+     * values and subtree sizes on the path above the spot that was emptied are updated, and the
+     * balancing strategy, if there is one, then repairs the tree.
+     *
+     * @param value The value to remove.
+     * @return True if the value was in the tree and has been removed.
      */
-    public void updateNodes() {
-        if (needsUpdate) {
-            LevelIterator iterator = new LevelIterator(root);
-            Deque<Node> reverseQueue = new ArrayDeque<Node>();
-            root.setId(0);
-            while (iterator.hasNext()) { // traverse the tree in level order, updating the ID of each node as we go.
-                Node node = iterator.next();
-                if (node.getLeft() != null) {
-                    node.getLeft().setId(node.getId() * 2 + 1);
-                }
-                if (node.getRight() != null) {
-                    node.getRight().setId(node.getId() * 2 + 2);
-                }
-                reverseQueue.push(node); // add the node to the reverseQueue so we can iterate them in reverse order.
+    public boolean remove(int value) {
+        TreeNode removed = findNode(value);
+        if (removed == null) {
+            return false;
+        }
+        nodeCount--;
+        if (keys != null) {
+            keys.release(value);
+        }
+        TreeNode replacement; // the node that takes the removed node's place
+        TreeNode child; // the node that takes the spot that was emptied
+        TreeNode childParent; // the lowest node that lost a descendant
+        boolean removedRed = removed.isRed();
+        if (removed.getLeft() == null || removed.getRight() == null) {
+            child = removed.getLeft() != null ? removed.getLeft() : removed.getRight();
+            childParent = removed.getParent();
+            replaceChild(removed, child);
+            replacement = child;
+        } else {
+            replacement = removed.getRight();
+            while (replacement.getLeft() != null) {
+                replacement = replacement.getLeft();
             }
-            System.out.println(reverseQueue.peek().toString());
-            while (!reverseQueue.isEmpty()) {
-                Node node = reverseQueue.pop();
-                node.updateAVLProperties();
-                updateNodeColor(node);
+            removedRed = replacement.isRed();
+            child = replacement.getRight();
+            if (replacement.getParent() == removed) {
+                childParent = replacement;
+            } else {
+                childParent = replacement.getParent();
+                replaceChild(replacement, child);
+                replacement.setRight(removed.getRight());
+                replacement.getRight().setParent(replacement);
             }
-            needsUpdate = false;
+            replaceChild(removed, replacement);
+            replacement.setLeft(removed.getLeft());
+            replacement.getLeft().setParent(replacement);
+            replacement.setRed(removed.isRed());
         }
+        removed.setLeft(null);
+        removed.setRight(null);
+        removed.setParent(null);
+        structureVersion++;
+
+        updateToRoot(childParent); // the path from the emptied spot passes through the successor
+        verifyIfEnabled();
+        if (balancing != null) {
+            balancing.afterRemove(this, childParent, child, removedRed);
+        }
+        return true;
     }
 
-    private void updateNodeColor(Node node) {
-        double avlValue = node.getAvlValue();
-        double maxValue = allValues.size() / 2;
-        if (avlValue == 1 || avlValue == -1) {
-            node.updateColor(0);
+    /**
+     * Puts the replacement where the old node used to hang, either as the root or under the old node's
+     * parent. The old node's own links are left alone.
+     *
+     * @param old         The node to unhook.
+     * @param replacement The node to hang in its place, or null.
+     */
+    private void replaceChild(TreeNode old, TreeNode replacement) {
+        TreeNode parent = old.getParent();
+        if (parent == null) {
+            root = replacement;
+        } else if (parent.getLeft() == old) {
+            parent.setLeft(replacement);
+        } else {
+            parent.setRight(replacement);
         }
-        else {
-            node.updateColor(avlValue / maxValue);
+        if (replacement != null) {
+            replacement.setParent(parent);
         }
     }
 
     /**
-     * Inserts a node into the tree following binary search tree rules.
+     * Finds the node holding the given value with an iterative descent from the root.
      *
-     * @param localRoot The current root where the node is being inserted.
-     * @param node      The new node to insert into the tree.
+     * @param value The value to look for.
+     * @return The node holding the value, or null if it is not in the tree.
      */
-    private void insertNode(Node localRoot, Node node) {
-        if (node.getData() > localRoot.getData()) {
-            if (localRoot.getRight() == null) {
-                localRoot.setRight(node);
-                node.setParent(localRoot);
-                return;
+    private TreeNode findNode(int value) {
+        TreeNode node = root;
+        while (node != null && node.getData() != value) {
+            node = value > node.getData() ? node.getRight() : node.getLeft();
+        }
+        return node;
+    }
+
+    /**
+     * Returns whether the given value is stored in the tree.
+     *
+     * @param value The value to look for.
+     * @return True if a node holds the value.
+     */
+    public boolean contains(int value) {
+        return findNode(value) != null;
+    }
+
+    /**
+     * Finds the node with the largest value that is less than or equal to the given value.
+     *
+     * @param value The value to compare against.
+     * @return The matching node, or null if every value in the tree is greater.
+     */
+    public TreeNode floor(int value) {
+        TreeNode best = null;
+        TreeNode node = root;
+        while (node != null) {
+            if (node.getData() == value) {
+                return node;
+            }
+            if (node.getData() < value) {
+                best = node; // a candidate, but there may be a closer one on the right
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Finds the node with the smallest value that is greater than or equal to the given value.
+     *
+     * @param value The value to compare against.
+     * @return The matching node, or null if every value in the tree is smaller.
+     */
+    public TreeNode ceiling(int value) {
+        TreeNode best = null;
+        TreeNode node = root;
+        while (node != null) {
+            if (node.getData() == value) {
+                return node;
+            }
+            if (node.getData() > value) {
+                best = node; // a candidate, but there may be a closer one on the left
+                node = node.getLeft();
+            } else {
+                node = node.getRight();
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the node with the smallest value.
+     *
+     * @return The leftmost node, or null if the tree is empty.
+     */
+    public TreeNode min() {
+        TreeNode node = root;
+        while (node != null && node.getLeft() != null) {
+            node = node.getLeft();
+        }
+        return node;
+    }
+
+    /**
+     * Returns the node with the largest value.
+     *
+     * @return The rightmost node, or null if the tree is empty.
+     */
+    public TreeNode max() {
+        TreeNode node = root;
+        while (node != null && node.getRight() != null) {
+            node = node.getRight();
+        }
+        return node;
+    }
+
+    /**
+     * Passes every value between low and high, inclusive, to the action in ascending order. The scan
+     * starts at the ceiling of low and follows parent links to each successor, so it needs no stack
+     * and allocates nothing.
+     *
+     * @param low    The smallest value to report.
+     * @param high   The largest value to report.
+     * @param action Called with each value in the range.
+     */
+    public void range(int low, int high, IntConsumer action) {
+        for (TreeNode node = ceiling(low); node != null && node.getData() <= high; node = successor(node)) {
+            action.accept(node.getData());
+        }
+    }
+
+    /**
+     * Returns the node that comes after the given one in sorted order.
+     *
+     * @param node A node in this tree.
+     * @return The in-order successor, or null if the node holds the largest value.
+     */
+    private static TreeNode successor(TreeNode node) {
+        if (node.getRight() != null) {
+            node = node.getRight();
+            while (node.getLeft() != null) {
+                node = node.getLeft();
+            }
+            return node;
+        }
+        while (node.getParent() != null && node.getParent().getRight() == node) {
+            node = node.getParent();
+        }
+        return node.getParent();
+    }
+
+    /**
+     * Returns how many values in the tree are smaller than the given value, which is the index the value
+     * has or would have in sorted order. Takes O(height) using the subtree sizes.
+     *
+     * @param value The value to rank.
+     * @return The number of smaller values.
+     */
+    public int rank(int value) {
+        return countBelow(value, false);
+    }
+
+    /**
+     * Returns the node holding the k-th smallest value, counting from zero. Takes O(height) using the
+     * subtree sizes.
+     *
+     * @param k The index of the value in sorted order.
+     * @return The node at that index.
+     * @throws IndexOutOfBoundsException if k is negative or not smaller than the size of the tree.
+     */
+    public TreeNode select(int k) {
+        if (k < 0 || k >= nodeCount) {
+            throw new IndexOutOfBoundsException("Index " + k + " is out of bounds for a tree of size " + nodeCount);
+        }
+        TreeNode node = root;
+        while (true) {
+            int leftSize = node.getLeft() == null ? 0 : node.getLeft().getSubtreeSize();
+            if (k < leftSize) {
+                node = node.getLeft();
+            } else if (k == leftSize) {
+                return node;
+            } else {
+                k -= leftSize + 1;
+                node = node.getRight();
+            }
+        }
+    }
+
+    /**
+     * Returns how many values lie between low and high, inclusive, in O(height).
+     *
+     * @param low  The smallest value to count.
+     * @param high The largest value to count.
+     * @return The number of values in the range.
+     */
+    public int countInRange(int low, int high) {
+        if (low > high) {
+            return 0;
+        }
+        return countBelow(high, true) - countBelow(low, false);
+    }
+
+    /**
+     * Counts the values below the given value with one descent, adding up the left subtrees that are
+     * passed on the way down.
+     *
+     * @param value     The value to compare against.
+     * @param inclusive Whether a node equal to the value is counted too.
+     * @return The number of values below (or at) the value.
+     */
+    private int countBelow(int value, boolean inclusive) {
+        int count = 0;
+        TreeNode node = root;
+        while (node != null) {
+            if (node.getData() < value || (inclusive && node.getData() == value)) {
+                count += 1 + (node.getLeft() == null ? 0 : node.getLeft().getSubtreeSize());
+                node = node.getRight();
+            } else {
+                node = node.getLeft();
             }
-            insertNode(localRoot.getRight(), node);
-        } else if (node.getData() < localRoot.getData()) {
-            if (localRoot.getLeft() == null) {
-                localRoot.setLeft(node);
-                node.setParent(localRoot);
+        }
+        return count;
+    }
+
+    /**
+     * Changes how later inserts and removals rebalance the tree. The new strategy is given the nodes
+     * already in the tree through {@link BalancingStrategy#afterRebuild}, which is how a tree made by
+     * {@link #fromSorted} becomes a red-black tree, for example, and how an {@link AVLBalancer} given an
+     * unbalanced tree rebalances it first.
+     *
+     * @param balancing The new strategy, or null to stop rebalancing.
+     */
+    public void setBalancing(BalancingStrategy balancing) {
+        this.balancing = balancing;
+        if (balancing != null && root != null) {
+            balancing.afterRebuild(this);
+        }
+    }
+
+    public BalancingStrategy getBalancing() {
+        return balancing;
+    }
+
+    /**
+     * Returns how many rotations this tree has performed, whether they were made by the user or by the
+     * balancing strategy.
+     *
+     * @return The number of rotations so far.
+     */
+    public int getRotationCount() {
+        return rotationCount;
+    }
+
+    /**
+     * Updates the AVL properties of every node in the tree with a full O(n) sweep. Inserts and
+     * rotations keep these values current on their own, so the sweep only runs after the tree has been
+     * built in bulk.
+     */
+    public void updateNodes() {
+        updateAllInPlace();
+    }
+
+    /**
+     * Returns a counter that goes up every time a node is linked in, unlinked or rotated. A
+     * {@link TreeLayout} compares it with the value it last saw to tell whether it has to run again.
+     *
+     * @return The number of structural changes so far.
+     */
+    public long getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * Returns whether every node in the tree has an AVL value of -1, 0 or 1. Every node keeps the worst
+     * imbalance in its subtree, so this only looks at the root and takes O(1).
+     *
+     * @return True if the tree is AVL balanced.
+     */
+    public boolean isBalanced() {
+        return root == null || root.getMaxImbalance() <= 1;
+    }
+
+    /**
+     * Returns the nodes whose AVL value is less than -1 or greater than 1. The search only goes into
+     * subtrees whose worst imbalance is above 1, so balanced parts of the tree are skipped.
+     *
+     * @return The unbalanced nodes, in no particular order.
+     */
+    public List<TreeNode> getUnbalancedNodes() {
+        List<TreeNode> found = new ArrayList<>();
+        Deque<TreeNode> pending = new ArrayDeque<>();
+        if (!isBalanced()) {
+            pending.push(root);
+        }
+        while (!pending.isEmpty()) {
+            TreeNode node = pending.pop();
+            if (Math.abs(node.getAvlValue()) > 1) {
+                found.add(node);
+            }
+            if (node.getLeft() != null && node.getLeft().getMaxImbalance() > 1) {
+                pending.push(node.getLeft());
+            }
+            if (node.getRight() != null && node.getRight().getMaxImbalance() > 1) {
+                pending.push(node.getRight());
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Recomputes the AVL properties and subtree size of a node and of every ancestor. Inserts and
+     * removals change the size of every subtree above them, so unlike a rotation they cannot stop at the
+     * first unchanged height; the walk is still only as long as the path to the root.
+     *
+     * @param node The lowest node whose subtree gained or lost a node.
+     */
+    private void updateToRoot(TreeNode node) {
+        for (; node != null; node = node.getParent()) {
+            node.updateAVLProperties();
+        }
+    }
+
+    /**
+     * Recomputes the AVL properties of a node whose children changed, then walks up its ancestors until
+     * it reaches one whose height and worst imbalance are unchanged. Every node above that point already
+     * has correct values. This is only valid for rotations, which move nodes around without changing any
+     * subtree's size.
+     *
+     * @param node The lowest node whose children changed.
+     */
+    private void updatePath(TreeNode node) {
+        while (node != null) {
+            int oldHeight = node.getHeightFromLeaf();
+            int oldImbalance = node.getMaxImbalance();
+            node.updateAVLProperties();
+            if (node.getHeightFromLeaf() == oldHeight && node.getMaxImbalance() == oldImbalance) {
                 return;
             }
-            insertNode(localRoot.getLeft(), node);
+            node = node.getParent();
         }
     }
 
     /**
-     * Creates a new node with a unique random integer value.
+     * Fixes up the tree after a rotation: the pivot and the new subtree root are recomputed, the
+     * ancestors are only visited if the height or worst imbalance of the rotated subtree changed.
      *
-     * @return A new Node with a unique random value.
+     * @param pivot   The node that was rotated down.
+     * @param newRoot The node that took the pivot's place.
      */
-    private Node makeNewNode() {
-        Random rand = new Random();
-        int val = rand.nextInt(100);
-        while (allValues.contains(val)) { // cycle until we find a unique value
-            val = rand.nextInt(100);
+    private void updateAfterRotation(TreeNode pivot, TreeNode newRoot) {
+        int oldHeight = pivot.getHeightFromLeaf(); // the pivot still holds the values of the whole subtree
+        int oldImbalance = pivot.getMaxImbalance();
+        pivot.updateAVLProperties();
+        newRoot.updateAVLProperties();
+        if (newRoot.getHeightFromLeaf() != oldHeight || newRoot.getMaxImbalance() != oldImbalance) {
+            updatePath(newRoot.getParent());
         }
-        allValues.add(val);
-        return new Node(val);
+        verifyIfEnabled();
+    }
+
+    /**
+     * Turns on a verification mode in which every incremental update is checked against the result of
+     * a full {@link #updateNodes()} sweep. This is meant for tests and debugging, as each check costs
+     * O(n).
+     *
+     * @param verify Whether incremental updates should be verified.
+     */
+    public void setVerifyUpdates(boolean verify) {
+        this.verifyUpdates = verify;
+    }
+
+    private void verifyIfEnabled() {
+        if (verifyUpdates) {
+            verifyNodes();
+        }
+    }
+
+    /**
+     * Checks that the heights, AVL values, subtree sizes and worst imbalances of every node match what a
+     * full sweep would compute, and that exactly the nodes with an AVL value outside -1 to 1 are found
+     * by {@link #getUnbalancedNodes}.
+     *
+     * @throws IllegalStateException if any node disagrees with the full sweep.
+     */
+    public void verifyNodes() {
+        LevelIterator iterator = new LevelIterator(root);
+        Deque<TreeNode> reverseQueue = new ArrayDeque<TreeNode>();
+        int unbalancedCount = 0;
+        while (iterator.hasNext()) {
+            reverseQueue.push(iterator.next());
+        }
+        while (!reverseQueue.isEmpty()) { // children are checked before their parents
+            TreeNode node = reverseQueue.pop();
+            int leftHeight = node.getLeft() == null ? 0 : node.getLeft().getHeightFromLeaf();
+            int rightHeight = node.getRight() == null ? 0 : node.getRight().getHeightFromLeaf();
+            int leftSize = node.getLeft() == null ? 0 : node.getLeft().getSubtreeSize();
+            int rightSize = node.getRight() == null ? 0 : node.getRight().getSubtreeSize();
+            int worst = Math.max(node.getLeft() == null ? 0 : node.getLeft().getMaxImbalance(),
+                node.getRight() == null ? 0 : node.getRight().getMaxImbalance());
+            if (node.getHeightFromLeaf() != 1 + Math.max(leftHeight, rightHeight)
+                || node.getAvlValue() != rightHeight - leftHeight
+                || node.getSubtreeSize() != 1 + leftSize + rightSize
+                || node.getMaxImbalance() != Math.max(worst, Math.abs(node.getAvlValue()))) {
+                throw new IllegalStateException("Incremental update of " + node + " disagrees with a full sweep");
+            }
+            if (Math.abs(node.getAvlValue()) > 1) {
+                unbalancedCount++;
+            }
+        }
+        int found = getUnbalancedNodes().size();
+        if (unbalancedCount != found || isBalanced() != (unbalancedCount == 0)) {
+            throw new IllegalStateException("Found " + found + " unbalanced nodes instead of " + unbalancedCount);
+        }
+    }
+
+    /**
+     * Inserts a node into the tree following binary search tree rules. The descent is a loop rather
+     * than a recursion, so a degenerate tree of any depth can be inserted into. A node whose value is
+     * already in the tree is not linked in.
+     *
+     * @param node The new node to insert into the tree.
+     * @return The nodes passed on the way down, with the new node's parent on top and the root at the
+     *         bottom, or null if the value was already in the tree. The deque is reused by the next
+     *         insert, so use it before inserting again.
+     */
+    private Deque<TreeNode> insertNode(TreeNode node) {
+        insertPath.clear();
+        if (root == null) {
+            root = node;
+            structureVersion++;
+            return insertPath;
+        }
+        TreeNode localRoot = root;
+        while (true) {
+            insertPath.push(localRoot);
+            if (node.getData() > localRoot.getData()) {
+                if (localRoot.getRight() == null) {
+                    localRoot.setRight(node);
+                    break;
+                }
+                localRoot = localRoot.getRight();
+            } else if (node.getData() < localRoot.getData()) {
+                if (localRoot.getLeft() == null) {
+                    localRoot.setLeft(node);
+                    break;
+                }
+                localRoot = localRoot.getLeft();
+            } else {
+                return null;
+            }
+        }
+        node.setParent(localRoot);
+        structureVersion++;
+        return insertPath;
+    }
+
+    /**
+     * Replaces the source of values for {@link #addRandomNode}.
+     *
+     * @param keys The new key source.
+     */
+    public void setKeySource(KeySource keys) {
+        this.keys = keys;
     }
 
     /**
@@ -134,11 +764,24 @@ public class Tree {
      * @param pivot The pivot node to rotate.
      * @return The new root of the subtree after rotation.
      */
-    public Node rotateLeft(Node pivot) {
+    public TreeNode rotateLeft(TreeNode pivot) {
         if (pivot.getRight() == null) {
             return null;
         }
-        Node x = pivot.getRight();
+        TreeNode x = relinkRotateLeft(pivot);
+        updateAfterRotation(pivot, x);
+        return x;
+    }
+
+    /**
+     * Relinks the nodes for a left rotation without updating any heights or AVL values. The pivot
+     * must have a right child.
+     *
+     * @param pivot The pivot node to rotate.
+     * @return The new root of the subtree after rotation.
+     */
+    private TreeNode relinkRotateLeft(TreeNode pivot) {
+        TreeNode x = pivot.getRight();
         pivot.setRight(x.getLeft());
         if (pivot.getRight() != null) {
             pivot.getRight().setParent(pivot);
@@ -156,7 +799,8 @@ public class Tree {
         }
         x.setLeft(pivot);
         pivot.setParent(x);
-        this.needsUpdate = true;
+        rotationCount++;
+        structureVersion++;
         return x;
     }
 
@@ -166,11 +810,24 @@ public class Tree {
      * @param pivot The pivot node to rotate.
      * @return The new root of the subtree after rotation.
      */
-    public Node rotateRight(Node pivot) {
+    public TreeNode rotateRight(TreeNode pivot) {
         if (pivot.getLeft() == null) {
             return null;
         }
-        Node x = pivot.getLeft();
+        TreeNode x = relinkRotateRight(pivot);
+        updateAfterRotation(pivot, x);
+        return x;
+    }
+
+    /**
+     * Relinks the nodes for a right rotation without updating any heights or AVL values. The pivot
+     * must have a left child.
+     *
+     * @param pivot The pivot node to rotate.
+     * @return The new root of the subtree after rotation.
+     */
+    private TreeNode relinkRotateRight(TreeNode pivot) {
+        TreeNode x = pivot.getLeft();
         pivot.setLeft(x.getRight());
         if (pivot.getLeft() != null) {
             pivot.getLeft().setParent(pivot);
@@ -188,36 +845,103 @@ public class Tree {
         }
         x.setRight(pivot);
         pivot.setParent(x);
-        this.needsUpdate = true;
+        rotationCount++;
+        structureVersion++;
         return x;
     }
 
     /**
-     * Updates the ID of each node in the tree. Call this method only on the root node as it will update all of the children.
-     * @param localRoot
+     * Rebalances the whole tree in O(n) time with the Day-Stout-Warren algorithm. Right rotations first
+     * straighten the tree into a vine of right children, then rounds of left rotations down the vine
+     * fold it into a complete tree. Only O(1) extra memory is used and no nodes are created, so the
+     * nodes (and any views bound to them) are kept. The balancing strategy is told through
+     * {@link BalancingStrategy#afterRebuild}, so one that keeps state on the nodes can redo it for the
+     * new shape.
      */
-    public void updateId(Node localRoot) {
-        if (localRoot == null) return;
-        if (localRoot.getParent() == null) {
-            localRoot.setId(0);
-        } else {
-            if (localRoot.getParent().getLeft() == localRoot) {
-                localRoot.setId(localRoot.getParent().getId() * 2 + 1);
+    public void rebalance() {
+        int size = 0;
+        TreeNode node = root;
+        while (node != null) { // turn the tree into a vine
+            if (node.getLeft() != null) {
+                node = relinkRotateRight(node);
             } else {
-                localRoot.setId(localRoot.getParent().getId() * 2 + 2);
+                size++;
+                node = node.getRight();
             }
         }
-        updateId(localRoot.getLeft());
-        updateId(localRoot.getRight());
+        // the vine is folded into a perfect tree of fullSize nodes, with the rest hanging below as leaves
+        int fullSize = Integer.highestOneBit(size + 1) - 1;
+        compressVine(size - fullSize);
+        while (fullSize > 1) {
+            fullSize /= 2;
+            compressVine(fullSize);
+        }
+        updateAllInPlace();
+        if (balancing != null) {
+            balancing.afterRebuild(this);
+        }
+        verifyIfEnabled();
     }
 
     /**
-     * Returns a set containing all values stored in the tree.
+     * Left rotates every other node down the right spine of the tree, starting at the root.
+     *
+     * @param count The number of rotations to make.
+     */
+    private void compressVine(int count) {
+        TreeNode pivot = root;
+        for (int i = 0; i < count; i++) {
+            pivot = relinkRotateLeft(pivot).getRight();
+        }
+    }
+
+    /**
+     * Recomputes the AVL properties of every node with a post-order walk that follows parent
+     * links instead of using a stack, so it needs O(1) extra memory.
+     */
+    private void updateAllInPlace() {
+        TreeNode previous = null;
+        TreeNode node = root;
+        while (node != null) {
+            TreeNode next;
+            if (previous == node.getParent()) { // arrived from above
+                next = node.getLeft() != null ? node.getLeft() : node.getRight();
+            } else if (previous == node.getLeft()) { // finished the left subtree
+                next = node.getRight();
+            } else { // finished the right subtree
+                next = null;
+            }
+            if (next == null) { // both subtrees are done
+                node.updateAVLProperties();
+                next = node.getParent();
+            }
+            previous = node;
+            node = next;
+        }
+    }
+
+    /**
+     * Returns a new set containing all values stored in the tree. The set is a copy built with a full
+     * traversal, so use {@link #contains}, {@link #size} or {@link #range} where they are enough.
      *
      * @return A set of all unique integers in the tree.
      */
     public Set<Integer> getAllValues() {
-        return allValues;
+        Set<Integer> values = new HashSet<>();
+        TreeNode min = min();
+        if (min != null) {
+            range(min.getData(), max().getData(), values::add);
+        }
+        return values;
+    }
+
+    /**
+     * Returns the number of nodes in the tree.
+     *
+     * @return The number of nodes.
+     */
+    public int size() {
+        return nodeCount;
     }
 
     /**
@@ -225,7 +949,7 @@ public class Tree {
      *
      * @return The root node of the tree.
      */
-    public Node getRoot() {
+    public TreeNode getRoot() {
         return root;
     }
 
@@ -233,14 +957,14 @@ public class Tree {
     public String toString() {
         return toStringHelper(root);
     }
-    private String toStringHelper(Node node) {
+    private String toStringHelper(TreeNode node) {
         if (node == null) {
             return "null ";
         }
 
         return 
-        "" + "[" + node.getData() + "-" + node.getId() + " " +
-        "P: " + (node.getParent() == null ? "null " : node.getParent().getData() + "-" + node.getParent().getId() + " ") +
+        "" + "[" + node.getData() + " " +
+        "P: " + (node.getParent() == null ? "null " : node.getParent().getData() + " ") +
         "L: " + toStringHelper(node.getLeft()) +
         "R: " + toStringHelper(node.getRight()) + "]";
     }
@@ -0,0 +1,314 @@
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+/**
+ * Works out where each node of a {@link Tree} goes, without touching the canvas. Every node gets its
+ * depth, its in-order rank, its index within its level and a horizontal position as a fraction of the
+ * width. The pass is O(n) and only runs again after the tree's structure has changed.
+ *
+ * <p>The horizontal position comes from the in-order rank, so every node has a column of its own and
+ * a left subtree is always drawn left of its parent. Ranks are carried down from parent to child using
+ * the subtree sizes, so unlike the old heap-index ids nothing overflows however deep the tree is.
+ *
+ * <p>The results are kept here rather than on the nodes, so a tree that is never drawn pays nothing
+ * for them. They are stored in arrays indexed by rank, and every query takes and returns ranks, which
+ * are only meaningful for the tree as it was at the last {@link #update()}. The ranks are also kept in
+ * level order, which serves as an index for finding the node drawn beside another one without
+ * searching the canvas.
+ */
+public class TreeLayout {
+    private final Tree tree;
+    private TreeNode[] nodes = new TreeNode[16]; // the node with each rank
+    private int[] depths = new int[16];
+    private int[] order = new int[16]; // the ranks level by level, each level from left to right
+    private int[] orderIndex = new int[16]; // where each rank is in order
+    private int[] levelStarts = new int[17]; // where each level starts in order, and where the last ends
+    private int[] stack = new int[16];
+    private int nodeCount;
+    private int depthCount;
+    private double columns;
+    private long version = -1;
+
+    /**
+     * Constructs a layout for the given tree. Nothing is laid out until {@link #update()} is called.
+     *
+     * @param tree The tree to lay out.
+     */
+    public TreeLayout(Tree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Lays out the tree again if its structure has changed since the last call. The nodes are visited
+     * in level order, using the array of ranks in level order as the queue.
+     *
+     * @return True if the layout was recomputed, false if it was already current.
+     */
+    public boolean update() {
+        if (version == tree.getStructureVersion()) {
+            return false;
+        }
+        version = tree.getStructureVersion();
+        int oldCount = nodeCount;
+        TreeNode root = tree.getRoot();
+        nodeCount = root == null ? 0 : tree.size();
+        depthCount = 0;
+        if (nodeCount > nodes.length) {
+            grow(Math.max(nodeCount, nodes.length * 2));
+        }
+        if (oldCount > nodeCount) {
+            Arrays.fill(nodes, nodeCount, oldCount, null); // let go of nodes that were removed
+        }
+        if (root == null) {
+            return true;
+        }
+        columns = nodeCount + 1.0;
+        int tail = place(root, sizeOf(root.getLeft()), 0, 0);
+        for (int head = 0; head < tail; head++) {
+            int rank = order[head];
+            TreeNode node = nodes[rank];
+            int depth = depths[rank];
+            if (depth == depthCount) { // the first node of a new level
+                levelStarts[depthCount++] = head;
+            }
+            TreeNode left = node.getLeft();
+            if (left != null) {
+                tail = place(left, rank - 1 - sizeOf(left.getRight()), depth + 1, tail);
+            }
+            TreeNode right = node.getRight();
+            if (right != null) {
+                tail = place(right, rank + 1 + sizeOf(right.getLeft()), depth + 1, tail);
+            }
+        }
+        levelStarts[depthCount] = tail;
+        return true;
+    }
+
+    /**
+     * Records a node's rank and depth and adds it to the end of the level order.
+     *
+     * @return The new length of the level order.
+     */
+    private int place(TreeNode node, int rank, int depth, int tail) {
+        nodes[rank] = node;
+        depths[rank] = depth;
+        order[tail] = rank;
+        orderIndex[rank] = tail;
+        return tail + 1;
+    }
+
+    private void grow(int capacity) {
+        nodes = Arrays.copyOf(nodes, capacity);
+        depths = new int[capacity];
+        order = new int[capacity];
+        orderIndex = new int[capacity];
+        levelStarts = new int[capacity + 1];
+        stack = new int[capacity];
+    }
+
+    private static int sizeOf(TreeNode node) {
+        return node == null ? 0 : node.getSubtreeSize();
+    }
+
+    /**
+     * Returns the number of nodes in the tree as of the last layout. Ranks go from 0 to one less than
+     * this.
+     *
+     * @return The number of nodes laid out.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Returns the node with the given rank as of the last layout.
+     *
+     * @param rank The number of nodes with a smaller value.
+     * @return The node with that rank.
+     */
+    public TreeNode getNode(int rank) {
+        return nodes[rank];
+    }
+
+    /**
+     * Returns the depth of the node with the given rank as of the last layout. The root has depth 0.
+     *
+     * @param rank The rank of a node.
+     * @return The node's depth.
+     */
+    public int getDepth(int rank) {
+        return depths[rank];
+    }
+
+    /**
+     * Returns the horizontal position of the node with the given rank as of the last layout.
+     *
+     * @param rank The rank of a node.
+     * @return The position as a fraction of the width, between 0 and 1.
+     */
+    public double getLayoutX(int rank) {
+        return (rank + 1) / columns;
+    }
+
+    /**
+     * Returns the position of the node with the given rank among the nodes at its depth.
+     *
+     * @param rank The rank of a node.
+     * @return The index from the left, starting at 0.
+     */
+    public int getLevelIndex(int rank) {
+        return orderIndex[rank] - levelStarts[depths[rank]];
+    }
+
+    /**
+     * Returns the rank of the parent of the node with the given rank, worked out from the subtree
+     * sizes in O(1).
+     *
+     * @param rank The rank of a node.
+     * @return The parent's rank, or -1 for the root.
+     */
+    public int getParent(int rank) {
+        TreeNode node = nodes[rank];
+        TreeNode parent = node.getParent();
+        if (parent == null) {
+            return -1;
+        }
+        return parent.getLeft() == node ? rank + sizeOf(node.getRight()) + 1 : rank - sizeOf(node.getLeft()) - 1;
+    }
+
+    /**
+     * Returns the rank of the left child of the node with the given rank.
+     *
+     * @param rank The rank of a node.
+     * @return The left child's rank, or -1 if there is no left child.
+     */
+    public int getLeftChild(int rank) {
+        TreeNode left = nodes[rank].getLeft();
+        return left == null ? -1 : rank - 1 - sizeOf(left.getRight());
+    }
+
+    /**
+     * Returns the rank of the right child of the node with the given rank.
+     *
+     * @param rank The rank of a node.
+     * @return The right child's rank, or -1 if there is no right child.
+     */
+    public int getRightChild(int rank) {
+        TreeNode right = nodes[rank].getRight();
+        return right == null ? -1 : rank + 1 + sizeOf(right.getLeft());
+    }
+
+    /**
+     * Returns the node next to the given one on its level, to its left.
+     *
+     * @param rank The rank of a node.
+     * @return The rank of the closest node at the same depth with a smaller value, or -1 if there is
+     *         none.
+     */
+    public int getLeftNeighbor(int rank) {
+        int index = orderIndex[rank];
+        return index == levelStarts[depths[rank]] ? -1 : order[index - 1];
+    }
+
+    /**
+     * Returns the node next to the given one on its level, to its right.
+     *
+     * @param rank The rank of a node.
+     * @return The rank of the closest node at the same depth with a larger value, or -1 if there is
+     *         none.
+     */
+    public int getRightNeighbor(int rank) {
+        int index = orderIndex[rank] + 1;
+        return index == levelStarts[depths[rank] + 1] ? -1 : order[index];
+    }
+
+    /**
+     * Finds the node at the given depth whose horizontal position is closest to x, with a binary search
+     * of the level. The nodes of a level are in order, so their positions are sorted.
+     *
+     * @param depth The depth to look at.
+     * @param x     The horizontal position as a fraction of the width.
+     * @return The rank of the closest node at that depth, or -1 if the tree has no nodes that deep.
+     */
+    public int findNearest(int depth, double x) {
+        if (depth < 0 || depth >= depthCount) {
+            return -1;
+        }
+        int start = levelStarts[depth];
+        int index = Math.min(firstAtOrRightOf(start, levelStarts[depth + 1], x), levelStarts[depth + 1] - 1);
+        int nearest = order[index];
+        if (index > start && x - getLayoutX(order[index - 1]) < getLayoutX(nearest) - x) {
+            nearest = order[index - 1];
+        }
+        return nearest;
+    }
+
+    /**
+     * Visits the nodes inside a box of the layout from the root down. A subtree covers the columns from
+     * its smallest to its largest rank, so a subtree that lies wholly left or right of the box, or below
+     * it, is skipped without being walked. The visitor decides whether to go on into a node's children,
+     * which lets the caller stand one node in for its whole subtree.
+     *
+     * @param minDepth The shallowest depth in the box.
+     * @param maxDepth The deepest depth in the box.
+     * @param minX     The left side of the box, as a fraction of the width.
+     * @param maxX     The right side of the box, as a fraction of the width.
+     * @param visitor  Called with the rank of each node in the box, parents before children. It returns
+     *                 true to visit the node's children as well, or false to skip them.
+     */
+    public void forEachInRange(int minDepth, int maxDepth, double minX, double maxX, IntPredicate visitor) {
+        if (nodeCount == 0) {
+            return;
+        }
+        int top = 0;
+        stack[top++] = sizeOf(tree.getRoot().getLeft());
+        while (top > 0) {
+            int rank = stack[--top];
+            TreeNode node = nodes[rank];
+            int depth = depths[rank];
+            double low = (rank - sizeOf(node.getLeft()) + 1) / columns;
+            double high = (rank + sizeOf(node.getRight()) + 1) / columns;
+            if (depth > maxDepth || high < minX || low > maxX) {
+                continue; // nothing in this subtree is in the box
+            }
+            double x = getLayoutX(rank);
+            boolean inBox = depth >= minDepth && x >= minX && x <= maxX;
+            if (inBox && !visitor.test(rank)) {
+                continue;
+            }
+            if (node.getRight() != null) {
+                stack[top++] = getRightChild(rank);
+            }
+            if (node.getLeft() != null) {
+                stack[top++] = getLeftChild(rank);
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the first rank in order[start..end) at or right of x, or end if every node
+     * there is left of x.
+     */
+    private int firstAtOrRightOf(int start, int end, double x) {
+        int low = start;
+        int high = end;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (getLayoutX(order[middle]) < x) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the number of levels in the tree as of the last layout.
+     *
+     * @return The number of levels, or 0 if the tree is empty.
+     */
+    public int getDepthCount() {
+        return depthCount;
+    }
+}
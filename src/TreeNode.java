@@ -0,0 +1,173 @@
+/**
+ * Represents a node in a binary search tree that stores integers. This is the data-only half of a
+ * node: it holds the links to its left child, right child and parent, the data, the height from the
+ * leaf, the AVL value and the subtree size, but nothing that is drawn. Where a node is drawn is worked
+ * out by a {@link TreeLayout}, and a {@link Node} can be bound to a TreeNode to show it on a canvas.
+ */
+public class TreeNode implements Comparable<TreeNode> {
+    private TreeNode left;
+    private TreeNode right;
+    private TreeNode parent;
+    private final int data;
+    private int heightFromLeaf;
+    private int avlValue;
+    private int subtreeSize;
+    private int maxImbalance;
+    private boolean red;
+
+    /**
+     * Constructs a new leaf TreeNode with the specified integer value.
+     *
+     * @param value The integer value to store in the node.
+     */
+    public TreeNode(int value) {
+        this.data = value;
+        this.heightFromLeaf = 1;
+        updateAVLProperties();
+    }
+
+    /**
+     * Compares this node with another node based on their integer values.
+     *
+     * @param o The node to compare with.
+     * @return A negative integer, zero, or a positive integer as this node's value is less than, equal
+     *         to, or greater than the specified node's value.
+     */
+    @Override
+    public int compareTo(TreeNode o) {
+        return this.data - o.getData();
+    }
+
+    /**
+     * Updates the AVL value, height from leaf, subtree size and largest imbalance in the subtree, using
+     * the properties of its children. This method should be called on children before the parent.
+     */
+    public void updateAVLProperties() {
+        int leftHeight = 0;
+        int rightHeight = 0;
+        int size = 1;
+        int worst = 0;
+        if (this.left != null) {
+            leftHeight = left.getHeightFromLeaf();
+            size += left.getSubtreeSize();
+            worst = left.getMaxImbalance();
+        }
+        if (this.right != null) {
+            rightHeight = right.getHeightFromLeaf();
+            size += right.getSubtreeSize();
+            worst = Math.max(worst, right.getMaxImbalance());
+        }
+        // Height of a node is 1 + max height of its children
+        this.heightFromLeaf = 1 + Math.max(leftHeight, rightHeight);
+        this.avlValue = rightHeight - leftHeight;
+        this.subtreeSize = size;
+        this.maxImbalance = Math.max(worst, Math.abs(avlValue));
+    }
+
+    /**
+     * Returns the largest absolute AVL value of any node in the subtree rooted at this node, including
+     * itself. The subtree is AVL balanced if this is at most 1.
+     *
+     * @return The worst imbalance in the subtree.
+     */
+    public int getMaxImbalance() {
+        return maxImbalance;
+    }
+
+    /**
+     * Returns the number of nodes in the subtree rooted at this node, including itself.
+     *
+     * @return The size of the subtree.
+     */
+    public int getSubtreeSize() {
+        return subtreeSize;
+    }
+
+    public void setHeightFromLeaf(int height) {
+        this.heightFromLeaf = height;
+    }
+
+    public int getHeightFromLeaf() {
+        return this.heightFromLeaf;
+    }
+
+    public void setAVLValue(int value) {
+        this.avlValue = value;
+    }
+
+    public int getAvlValue() {
+        return avlValue;
+    }
+
+    /**
+     * Returns whether this node is red. Only trees balanced by a {@link RedBlackBalancer} color their
+     * nodes; in any other tree every node stays black.
+     *
+     * @return True if the node is red, false if it is black.
+     */
+    public boolean isRed() {
+        return red;
+    }
+
+    public void setRed(boolean red) {
+        this.red = red;
+    }
+
+    /**
+     * Returns the left child of this node.
+     *
+     * @return The left child node.
+     */
+    public TreeNode getLeft() {
+        return left;
+    }
+
+    /**
+     * Sets the left child of this node.
+     *
+     * @param newLeft The node to set as the left child.
+     */
+    public void setLeft(TreeNode newLeft) {
+        this.left = newLeft;
+    }
+
+    /**
+     * Returns the right child of this node.
+     *
+     * @return The right child node.
+     */
+    public TreeNode getRight() {
+        return right;
+    }
+
+    /**
+     * Sets the right child of this node.
+     *
+     * @param newRight The node to set as the right child.
+     */
+    public void setRight(TreeNode newRight) {
+        this.right = newRight;
+    }
+
+    public TreeNode getParent() {
+        return parent;
+    }
+
+    public void setParent(TreeNode newParent) {
+        this.parent = newParent;
+    }
+
+    /**
+     * Returns the integer data stored in this node.
+     *
+     * @return The data stored in the node.
+     */
+    public int getData() {
+        return data;
+    }
+
+    @Override
+    public String toString() {
+        return "Data: " + Integer.toString(data);
+    }
+}
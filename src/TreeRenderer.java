@@ -0,0 +1,412 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Stroke;
+import java.awt.font.FontRenderContext;
+import java.awt.font.GlyphVector;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.geom.RoundRectangle2D;
+import java.util.Arrays;
+
+import edu.macalester.graphics.GraphicsObject;
+import edu.macalester.graphics.Point;
+
+/**
+ * Draws every bubble, label and edge of a tree as one GraphicsObject. Each drawn node is a slot in a
+ * set of parallel arrays holding its center, parent slot, colors and outline, so the canvas only has
+ * one object to paint however big the tree is, and painting a frame allocates nothing. The labels are
+ * laid out into glyphs the first time they are drawn and reused after that.
+ *
+ * <p>Only the slots the caller lists for the frame are painted, and everything is painted through a
+ * {@link Camera}, so panning and zooming never touch the slots and a frame costs as much as what is on
+ * screen.
+ *
+ * <p>A slot can also be drawn as a summary of the whole subtree below it: a box with a line of text in
+ * place of the bubble, for subtrees too small on screen to draw node by node. The box never spills out
+ * of the columns its subtree covers, so the boxes of neighboring subtrees never overlap: it shows the
+ * longest of its texts that fits, or no text at all if none does.
+ */
+public class TreeRenderer extends GraphicsObject {
+    private static final Font LABEL_FONT = new Font("SansSerif", Font.PLAIN, 14);
+    private static final Font SUMMARY_FONT = new Font("SansSerif", Font.PLAIN, 11);
+    private static final double SUMMARY_HEIGHT = 20;
+    private static final Stroke THIN = new BasicStroke(1);
+    private static final Stroke THICK = new BasicStroke(6);
+    private static final double RADIUS = Node.DIAMETER / 2.0;
+
+    private double[] xs;
+    private double[] ys;
+    private int[] parents;
+    private int[] keys;
+    private Color[] fills;
+    private Color[] labelColors;
+    private boolean[] selected;
+    private GlyphVector[] glyphs;
+    private float[] glyphOffsets;
+    private String[][] summaryTexts;
+    private Color[] summaryFills;
+    private GlyphVector[][] summaryGlyphs;
+    private float[][] summaryWidths;
+    private double[] summaryLefts;
+    private double[] summaryRights;
+    private int[] shownFrames;
+    private int count;
+    private int frame;
+    private int[] shown = new int[16];
+    private int shownCount;
+    private int[] edges = new int[16];
+    private int edgeCount;
+
+    private FontRenderContext glyphContext;
+    private final Camera camera;
+    private final Ellipse2D.Double bubble = new Ellipse2D.Double();
+    private final RoundRectangle2D.Double summaryBox = new RoundRectangle2D.Double();
+    private final Line2D.Double edge = new Line2D.Double();
+    private double x;
+    private double y;
+    private final double width;
+    private final double height;
+
+    /**
+     * Constructs an empty renderer that covers an area of the given size.
+     *
+     * @param width  The width of the area the tree is drawn in.
+     * @param height The height of the area the tree is drawn in.
+     * @param camera The camera to look at the tree through.
+     */
+    public TreeRenderer(double width, double height, Camera camera) {
+        this.camera = camera;
+        this.width = width;
+        this.height = height;
+        xs = new double[16];
+        ys = new double[16];
+        parents = new int[16];
+        keys = new int[16];
+        fills = new Color[16];
+        labelColors = new Color[16];
+        selected = new boolean[16];
+        glyphs = new GlyphVector[16];
+        glyphOffsets = new float[16];
+        summaryTexts = new String[16][];
+        summaryFills = new Color[16];
+        summaryGlyphs = new GlyphVector[16][];
+        summaryWidths = new float[16][];
+        summaryLefts = new double[16];
+        summaryRights = new double[16];
+        shownFrames = new int[16];
+    }
+
+    /**
+     * Adds a slot for one more node. The slot is not painted until it is bound and shown.
+     *
+     * @return The new slot.
+     */
+    public int allocate() {
+        if (count == xs.length) {
+            grow();
+        }
+        return count++;
+    }
+
+    /**
+     * Sets a slot up to draw a node with no parent, no fill, a black label and a thin outline. A slot
+     * can be bound again to draw a different node.
+     *
+     * @param slot The slot to set up.
+     * @param key  The value to show on the node.
+     * @param x    The x coordinate of the center.
+     * @param y    The y coordinate of the center.
+     */
+    public void bind(int slot, int key, double x, double y) {
+        xs[slot] = x;
+        ys[slot] = y;
+        parents[slot] = -1;
+        keys[slot] = key;
+        fills[slot] = null;
+        labelColors[slot] = Color.BLACK;
+        selected[slot] = false;
+        glyphs[slot] = null;
+        summaryTexts[slot] = null;
+        summaryGlyphs[slot] = null;
+        shownFrames[slot] = frame - 1;
+    }
+
+    /**
+     * Doubles the length of every array.
+     */
+    private void grow() {
+        int capacity = xs.length * 2;
+        xs = Arrays.copyOf(xs, capacity);
+        ys = Arrays.copyOf(ys, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        fills = Arrays.copyOf(fills, capacity);
+        labelColors = Arrays.copyOf(labelColors, capacity);
+        selected = Arrays.copyOf(selected, capacity);
+        glyphs = Arrays.copyOf(glyphs, capacity);
+        glyphOffsets = Arrays.copyOf(glyphOffsets, capacity);
+        summaryTexts = Arrays.copyOf(summaryTexts, capacity);
+        summaryFills = Arrays.copyOf(summaryFills, capacity);
+        summaryGlyphs = Arrays.copyOf(summaryGlyphs, capacity);
+        summaryWidths = Arrays.copyOf(summaryWidths, capacity);
+        summaryLefts = Arrays.copyOf(summaryLefts, capacity);
+        summaryRights = Arrays.copyOf(summaryRights, capacity);
+        shownFrames = Arrays.copyOf(shownFrames, capacity);
+    }
+
+    /**
+     * Forgets which slots and edges to paint, to start listing them for a new frame.
+     */
+    public void clearShown() {
+        shownCount = 0;
+        edgeCount = 0;
+        frame++;
+    }
+
+    /**
+     * Paints the bubble and label of a slot in the coming frames.
+     *
+     * @param slot The node's slot.
+     */
+    public void show(int slot) {
+        if (shownCount == shown.length) {
+            shown = Arrays.copyOf(shown, shownCount * 2);
+        }
+        shown[shownCount++] = slot;
+        shownFrames[slot] = frame;
+    }
+
+    /**
+     * Returns whether a slot has been listed to be painted since the list was last cleared.
+     *
+     * @param slot The node's slot.
+     * @return True if the node is being painted.
+     */
+    public boolean isShown(int slot) {
+        return shownFrames[slot] == frame;
+    }
+
+    /**
+     * Paints the edge from a slot to its parent in the coming frames.
+     *
+     * @param slot The child's slot.
+     */
+    public void showEdge(int slot) {
+        if (edgeCount == edges.length) {
+            edges = Arrays.copyOf(edges, edgeCount * 2);
+        }
+        edges[edgeCount++] = slot;
+    }
+
+    public Camera getCamera() {
+        return camera;
+    }
+
+    /**
+     * Tells the canvas to repaint. The setters leave this to the caller, so a frame that changes many
+     * nodes only asks for one repaint.
+     */
+    public void refresh() {
+        changed();
+    }
+
+    public double getCenterX(int slot) {
+        return xs[slot];
+    }
+
+    public double getCenterY(int slot) {
+        return ys[slot];
+    }
+
+    public void setCenter(int slot, double x, double y) {
+        xs[slot] = x;
+        ys[slot] = y;
+    }
+
+    /**
+     * Sets which node an edge is drawn to from the given node.
+     *
+     * @param slot   The child's slot.
+     * @param parent The parent's slot, or -1 to draw no edge.
+     */
+    public void setParent(int slot, int parent) {
+        parents[slot] = parent;
+    }
+
+    /**
+     * Sets the fill color of a bubble.
+     *
+     * @param slot  The node's slot.
+     * @param color The fill color, or null to leave the bubble empty.
+     */
+    public void setFill(int slot, Color color) {
+        fills[slot] = color;
+    }
+
+    public void setLabelColor(int slot, Color color) {
+        labelColors[slot] = color;
+    }
+
+    /**
+     * Sets whether a bubble gets the thick outline that marks the selected node.
+     *
+     * @param slot     The node's slot.
+     * @param selected Whether the node is selected.
+     */
+    public void setSelected(int slot, boolean selected) {
+        this.selected[slot] = selected;
+        changed();
+    }
+
+    /**
+     * Draws a slot as a summary of its subtree instead of as a bubble.
+     *
+     * @param slot  The node's slot.
+     * @param texts The texts the summary box can show, longest first. The first one that fits is shown.
+     * @param fill  The fill color of the box.
+     */
+    public void setSummary(int slot, String[] texts, Color fill) {
+        summaryTexts[slot] = texts;
+        summaryFills[slot] = fill;
+        summaryGlyphs[slot] = null;
+    }
+
+    /**
+     * Sets how far the summary box of a slot may reach to either side of the node's center, which is
+     * the space its subtree's columns take up.
+     *
+     * @param slot  The node's slot.
+     * @param left  How far the box may reach to the left, in world units.
+     * @param right How far the box may reach to the right, in world units.
+     */
+    public void setSummarySpan(int slot, double left, double right) {
+        summaryLefts[slot] = left;
+        summaryRights[slot] = right;
+    }
+
+    /**
+     * Draws a slot as a bubble again.
+     *
+     * @param slot The node's slot.
+     */
+    public void clearSummary(int slot) {
+        summaryTexts[slot] = null;
+        summaryGlyphs[slot] = null;
+    }
+
+    @Override
+    protected void drawInLocalCoordinates(Graphics2D gc) {
+        gc.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        double zoom = camera.getZoom();
+        double offsetX = camera.getOffsetX();
+        double offsetY = camera.getOffsetY();
+        gc.scale(zoom, zoom);
+        gc.translate(-offsetX, -offsetY);
+        gc.setStroke(THIN);
+        gc.setColor(Color.BLACK);
+        for (int i = 0; i < edgeCount; i++) { // edges go under the bubbles
+            int slot = edges[i];
+            int parent = parents[slot];
+            if (parent >= 0) {
+                edge.setLine(xs[slot], ys[slot], xs[parent], ys[parent]);
+                gc.draw(edge);
+            }
+        }
+        FontRenderContext context = gc.getFontRenderContext();
+        if (!context.equals(glyphContext)) { // glyphs laid out for another context would look wrong
+            glyphContext = context;
+            Arrays.fill(glyphs, null);
+            Arrays.fill(summaryGlyphs, null);
+        }
+        for (int i = 0; i < shownCount; i++) {
+            int slot = shown[i];
+            if (summaryTexts[slot] != null) {
+                drawSummary(gc, slot, context);
+                continue;
+            }
+            bubble.setFrame(xs[slot] - RADIUS, ys[slot] - RADIUS, Node.DIAMETER, Node.DIAMETER);
+            if (fills[slot] != null) {
+                gc.setColor(fills[slot]);
+                gc.fill(bubble);
+            }
+            gc.setColor(Color.BLACK);
+            gc.setStroke(selected[slot] ? THICK : THIN);
+            gc.draw(bubble);
+            if (glyphs[slot] == null) {
+                glyphs[slot] = LABEL_FONT.createGlyphVector(context, Integer.toString(keys[slot]));
+                glyphOffsets[slot] = (float) glyphs[slot].getLogicalBounds().getWidth() / 2;
+            }
+            gc.setColor(labelColors[slot]);
+            gc.drawGlyphVector(glyphs[slot], (float) xs[slot] - glyphOffsets[slot], (float) ys[slot] + 4);
+        }
+        gc.translate(offsetX, offsetY); // undone step by step, as saving the transform would allocate
+        gc.scale(1 / zoom, 1 / zoom);
+    }
+
+    /**
+     * Draws the summary box of a slot with the longest of its texts that fits in its span, as close to
+     * where its bubble would be as the span allows. If no text fits, the box fills the span and shows
+     * no text.
+     */
+    private void drawSummary(Graphics2D gc, int slot, FontRenderContext context) {
+        String[] texts = summaryTexts[slot];
+        if (summaryGlyphs[slot] == null) {
+            summaryGlyphs[slot] = new GlyphVector[texts.length];
+            summaryWidths[slot] = new float[texts.length];
+            for (int i = 0; i < texts.length; i++) {
+                summaryGlyphs[slot][i] = SUMMARY_FONT.createGlyphVector(context, texts[i]);
+                summaryWidths[slot][i] = (float) summaryGlyphs[slot][i].getLogicalBounds().getWidth();
+            }
+        }
+        double span = summaryLefts[slot] + summaryRights[slot];
+        int fitting = 0;
+        while (fitting < texts.length && summaryWidths[slot][fitting] + 12 > span) {
+            fitting++;
+        }
+        double textWidth = fitting < texts.length ? summaryWidths[slot][fitting] : 0;
+        double boxWidth = fitting < texts.length ? textWidth + 12 : span;
+        // keep the box inside the span; min and max rather than clamp, as rounding may cross the bounds
+        double center = Math.min(Math.max(xs[slot], xs[slot] - summaryLefts[slot] + boxWidth / 2),
+            xs[slot] + summaryRights[slot] - boxWidth / 2);
+        summaryBox.setRoundRect(center - boxWidth / 2, ys[slot] - SUMMARY_HEIGHT / 2, boxWidth, SUMMARY_HEIGHT, 8, 8);
+        gc.setColor(summaryFills[slot]);
+        gc.fill(summaryBox);
+        gc.setColor(Color.BLACK);
+        gc.setStroke(THIN);
+        gc.draw(summaryBox);
+        if (fitting < texts.length) {
+            gc.drawGlyphVector(summaryGlyphs[slot][fitting], (float) (center - textWidth / 2), (float) ys[slot] + 4);
+        }
+    }
+
+    @Override
+    protected boolean testHitInLocalCoordinates(double x, double y) {
+        return false; // clicks are resolved from the layout, see TreeLayout.findNearest
+    }
+
+    @Override
+    public Point getPosition() {
+        return new Point(x, y);
+    }
+
+    @Override
+    public void setPosition(double x, double y) {
+        this.x = x;
+        this.y = y;
+        changed();
+    }
+
+    @Override
+    public Point getSize() {
+        return new Point(width, height);
+    }
+
+    @Override
+    public Rectangle2D getBounds() {
+        return new Rectangle2D.Double(x, y, width, height);
+    }
+}
@@ -1,47 +1,93 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntPredicate;
+
 import edu.macalester.graphics.CanvasWindow;
 import edu.macalester.graphics.GraphicsGroup;
-import edu.macalester.graphics.GraphicsObject;
 import edu.macalester.graphics.GraphicsText;
-import edu.macalester.graphics.Line;
-import edu.macalester.graphics.Point;
 import edu.macalester.graphics.Rectangle;
 import edu.macalester.graphics.ui.Button;
 
 /**
  * Visualizes a binary search tree (BST) on a graphical canvas. The tree structure is drawn
- * interactively, with nodes represented as graphical objects, and parent-child relationships
- * displayed as lines.
+ * interactively, with nodes represented as bubbles, and parent-child relationships displayed as
+ * lines, all painted by a single {@link TreeRenderer}.
+ *
+ * <p>A node only gets a view while it is in view or at the far end of an edge that is. Views that are
+ * no longer needed are kept in a pool and bound to the next nodes to come into view, so a big tree
+ * that is mostly off screen costs little more than its TreeNodes.
  */
 public class Visualizer {
     public static final int CANVAS_WIDTH = 1400;
     public static final int CANVAS_HEIGHT = 800;
+    // how far outside the canvas a node is still drawn, so bubbles and crowded nodes don't pop in
+    private static final double VIEW_MARGIN = 2 * Node.DIAMETER;
+    // a subtree narrower than this on screen is drawn as one summary instead of node by node
+    private static final double SUMMARY_WIDTH = 2 * Node.DIAMETER;
 
     private final int initialTreeSize;
 
     private Tree tree;
+    private TreeLayout layout;
     private CanvasWindow canvas;
     private Button resetButton;
     private Button newNodeButton;
     private Pivot pivot;
-    private GraphicsGroup treeGroup;
+    private TreeRenderer renderer;
+    private Camera camera;
+    private long shownCameraVersion = -1;
     private GraphicsText explanation; 
-    private GraphicsGroup lineGroup;
+    private Map<TreeNode, Node> views; // the views in use, by the node they draw
+    private final List<Node> liveViews = new ArrayList<>();
+    private final Deque<Node> freeViews = new ArrayDeque<>();
+    private Set<TreeNode> expanded = new HashSet<>(); // collapsed subtrees the user has clicked open
+    private GraphicsGroup winMessage;
+    private boolean winShown;
+    private boolean moving = true;
+    private int targetWidth;
+    private int targetHeight;
+
+    // the part of the layout in view, found from the camera whenever it or the canvas changes
+    private int viewMinDepth;
+    private int viewMaxDepth;
+    private double viewMinX;
+    private double viewMaxX;
+
+    // the state of the frame being drawn, kept in fields so showNode can be passed around without
+    // allocating a new lambda every frame
+    private final IntPredicate showNode = this::showNode;
+    private double frameTime;
+    private boolean frameRetarget;
+    private boolean frameRedBlack;
+    private double frameColumnWidth;
+    private int frame;
+
     public Visualizer(int size) {
         this.initialTreeSize = size;
         canvas = new CanvasWindow("The BeST Tree", CANVAS_WIDTH, CANVAS_HEIGHT);
         tree = new Tree(initialTreeSize);
+        layout = new TreeLayout(tree);
         pivot = new Pivot();
-        pivot.setRotateMethods(tree::rotateLeft, tree::rotateRight);
-        treeGroup = new GraphicsGroup();
+        setRotateMethods();
+        views = new HashMap<>();
+        camera = new Camera();
+        renderer = new TreeRenderer(CANVAS_WIDTH, CANVAS_HEIGHT, camera);
         explanation = new GraphicsText("The more yellow the node is, the more negative the AVL value is. \nThe more purple the node is, the more positive the AVL value is. \nIf the node is white, its AVL value is 1, -1, or 0");
-        lineGroup = new GraphicsGroup();
+        makeWinMessage();
         drawGraphics();
         setUpNodeClickListener();
+        setUpPanListener();
 
         newTreeButton();
         newNodeButton();
-        canvas.add(lineGroup);
-        canvas.add(treeGroup);
+        zoomButtons();
+        canvas.add(renderer);
         canvas.add(pivot);
         canvas.add(explanation);
         explanation.setCenter(1100,50);
@@ -49,64 +95,220 @@ public class Visualizer {
     }
 
     /**
-     * Updates the canvas, recalculating the avl values of the nodes, 
-     * animating the node positions, redrawing the lines between nodes,
-     * and checking if the tree is balanced
+     * Updates the canvas, laying out the tree again and moving the node targets if it or the canvas
+     * size has changed, animating the node positions, repainting the tree,
+     * and checking if the tree is balanced. Only the nodes in view are animated and drawn. Once every
+     * node has reached its target and nothing has changed since, a frame does no work at all until the
+     * tree, the canvas or the camera changes or the user clicks.
      * 
      * @param dTime the time since the last update
      */
     private void update(double dTime) {
-        lineGroup.removeAll();
-        tree.updateNodes();
-        LevelIterator iterator = new LevelIterator(tree.getRoot());
-        boolean balanced = true; // assume the tree is balanced until proven otherwise
-        while (iterator.hasNext()) {
-            Node node = iterator.next();
-            drawLine(node);
-            node.animate(dTime);
-            if (Math.abs(node.getAvlValue()) > 1) {
-                balanced = false;
-                newNodeButton.setPosition(-50, -50);
+        boolean restructured = layout.update();
+        boolean resized = canvas.getWidth() != targetWidth || canvas.getHeight() != targetHeight;
+        boolean cameraMoved = camera.getVersion() != shownCameraVersion;
+        if (!restructured && !resized && !cameraMoved && !moving) {
+            return; // the scene has settled
+        }
+        if (resized || cameraMoved) {
+            updateView();
+        }
+        if (resized) {
+            targetWidth = canvas.getWidth();
+            targetHeight = canvas.getHeight();
+        }
+        moving = false;
+        frameRetarget = restructured || resized;
+        frameTime = dTime;
+        frameRedBlack = tree.getBalancing() instanceof RedBlackBalancer;
+        frameColumnWidth = Node.columnWidth(canvas.getWidth(), tree.size());
+        frame++;
+        renderer.clearShown();
+        layout.forEachInRange(viewMinDepth, viewMaxDepth, viewMinX, viewMaxX, showNode);
+        releaseUnusedViews();
+        renderer.refresh();
+        if (tree.isBalanced() != winShown) {
+            showWinMessage(tree.isBalanced());
+        }
+    }
+
+    /**
+     * Colors, animates and draws a node that is in view, along with the edge to its parent and the
+     * edges to any children out of view, which would otherwise not be drawn at all. A subtree that
+     * would be too narrow on screen to tell its nodes apart is drawn as a single summary instead,
+     * unless the user has clicked it open. Views are made for the node and for the far ends of its
+     * edges if they have none yet.
+     *
+     * @param rank The node's rank in the layout.
+     * @return Whether the node's children should be shown too.
+     */
+    private boolean showNode(int rank) {
+        Node node = viewOf(rank);
+        TreeNode model = node.getModel();
+        node.refreshColor(tree.size(), frameRedBlack);
+        if (node.animate(frameTime, viewAt(layout.getLeftNeighbor(rank)), viewAt(layout.getRightNeighbor(rank)))) {
+            moving = true;
+        }
+        boolean collapse = model.getSubtreeSize() > 1 && !expanded.contains(model)
+            && model.getSubtreeSize() * frameColumnWidth * camera.getZoom() < SUMMARY_WIDTH;
+        node.setCollapsed(collapse, frameColumnWidth);
+        renderer.show(node.getSlot());
+        int parent = layout.getParent(rank);
+        if (parent >= 0) {
+            showEdge(node, viewOf(parent));
+        }
+        if (collapse) {
+            return false;
+        }
+        int left = layout.getLeftChild(rank);
+        if (left >= 0 && !inView(left)) {
+            showEdge(viewOf(left), node);
+        }
+        int right = layout.getRightChild(rank);
+        if (right >= 0 && !inView(right)) {
+            showEdge(viewOf(right), node);
+        }
+        return true;
+    }
+
+    private void showEdge(Node child, Node parent) {
+        renderer.setParent(child.getSlot(), parent.getSlot());
+        renderer.showEdge(child.getSlot());
+    }
+
+    /**
+     * Returns the view of a node, binding a free view to it if it has none, and marks the view as used
+     * in this frame. A new view starts at the node's target, as it was out of sight until now.
+     *
+     * <p>The views keep their targets between frames, so a view only works out its target again in a
+     * frame where the layout or the canvas size has changed. Every view still in use was used in that
+     * frame, as the rest are let go at its end. Views headed out of view jump straight to their
+     * targets, since no one would see them move and only the nodes in view are animated.
+     */
+    private Node viewOf(int rank) {
+        TreeNode model = layout.getNode(rank);
+        Node node = views.get(model);
+        if (node == null) {
+            node = freeViews.isEmpty() ? new Node(renderer) : freeViews.pop();
+            node.bind(model, layout.getLayoutX(rank), layout.getDepth(rank), targetWidth, targetHeight);
+            views.put(model, node);
+            liveViews.add(node);
+        } else if (frameRetarget) {
+            node.updateTarget(layout.getLayoutX(rank), layout.getDepth(rank), targetWidth, targetHeight);
+            if (!inView(rank)) {
+                node.jumpToTarget();
             }
         }
-        if (balanced) {
-            showWinMessage();
+        node.setUsedFrame(frame);
+        return node;
+    }
+
+    /**
+     * Returns the view of the node with the given rank if it has one.
+     *
+     * @param rank The rank of a node, or -1.
+     * @return The node's view, or null if there is no such node or it has no view.
+     */
+    private Node viewAt(int rank) {
+        return rank < 0 ? null : views.get(layout.getNode(rank));
+    }
+
+    /**
+     * Returns the views that were not used in this frame to the pool, so the views in use are only
+     * ever those of nodes on screen and the ends of their edges.
+     */
+    private void releaseUnusedViews() {
+        for (int i = liveViews.size() - 1; i >= 0; i--) {
+            Node node = liveViews.get(i);
+            if (node.getUsedFrame() != frame) {
+                releaseView(i);
+            }
         }
     }
 
-    private void showWinMessage() {
-        GraphicsObject winRect = new Rectangle(0, 0, 300, 50);
-        GraphicsText winText = new GraphicsText("The tree is balanced");
-        winText.setCenter(90,15);
-        newNodeButton.setPosition(150, 20);
-        lineGroup.add(winRect);
-        lineGroup.add(winText);
+    /**
+     * Moves the view at the given index of the views in use to the pool.
+     */
+    private void releaseView(int index) {
+        Node node = liveViews.get(index);
+        Node last = liveViews.remove(liveViews.size() - 1);
+        if (index < liveViews.size()) {
+            liveViews.set(index, last); // order doesn't matter, so fill the gap with the last view
+        }
+        views.remove(node.getModel());
+        if (pivot.getSelectedNode() == node) {
+            pivot.clearSelectedNode(); // the view is about to draw some other node
+        }
+        freeViews.push(node);
     }
 
     /**
-     * draws a line between the node and its parent
-     * @param node
+     * Works out which depths and which part of the layout's width the camera can see, with a margin
+     * around the canvas.
      */
-    private void drawLine(Node node) {
-        if (node != null && node.getParent() != null) {
-            Point pos1 = node.getCenter();
-            Point pos2 = node.getParent().getCenter();
+    private void updateView() {
+        shownCameraVersion = camera.getVersion();
+        double minX = camera.toWorldX(0) - VIEW_MARGIN;
+        double maxX = camera.toWorldX(canvas.getWidth()) + VIEW_MARGIN;
+        double minY = camera.toWorldY(0) - VIEW_MARGIN;
+        double maxY = camera.toWorldY(canvas.getHeight()) + VIEW_MARGIN;
+        viewMinDepth = Node.depthAt(minY, canvas.getHeight()) - 1; // depthAt rounds, so widen by a row
+        viewMaxDepth = Node.depthAt(maxY, canvas.getHeight()) + 1;
+        viewMinX = Node.layoutXAt(minX, canvas.getWidth());
+        viewMaxX = Node.layoutXAt(maxX, canvas.getWidth());
+    }
 
-            GraphicsObject line = new Line(pos1, pos2);
-            lineGroup.add(line);
+    /**
+     * Returns whether the node with the given rank is in the part of the layout the camera can see.
+     */
+    private boolean inView(int rank) {
+        int depth = layout.getDepth(rank);
+        double x = layout.getLayoutX(rank);
+        return depth >= viewMinDepth && depth <= viewMaxDepth && x >= viewMinX && x <= viewMaxX;
+    }
+
+    /**
+     * Builds the message shown when the tree is balanced. It is made once and only added to or removed
+     * from the canvas when the tree becomes balanced or stops being balanced.
+     */
+    private void makeWinMessage() {
+        winMessage = new GraphicsGroup();
+        winMessage.add(new Rectangle(0, 0, 300, 50));
+        GraphicsText winText = new GraphicsText("The tree is balanced");
+        winText.setCenter(90,15);
+        winMessage.add(winText);
+    }
+
+    private void showWinMessage(boolean show) {
+        winShown = show;
+        if (show) {
+            canvas.add(winMessage);
+            newNodeButton.setPosition(150, 20);
+        } else {
+            canvas.remove(winMessage);
+            newNodeButton.setPosition(-50, -50);
         }
     }
 
     /**
-     * Removes and redraws all nodes on the canvas
+     * Removes all nodes from the canvas, returning every view to the pool. Views are made again for
+     * the nodes in view on the next frame.
      */
     private void drawGraphics() {
         pivot.clearSelectedNode();
-        treeGroup.removeAll();
-        LevelIterator iterator = new LevelIterator(tree.getRoot());
-        iterator.forEachRemaining(node -> {
-            treeGroup.add(node, canvas.getWidth() / 2, -50);
-        });
+        while (!liveViews.isEmpty()) {
+            releaseView(liveViews.size() - 1);
+        }
+        moving = true;
+    }
+
+    /**
+     * Points the pivot's rotate buttons at the current tree. Call this method whenever the tree is recreated.
+     */
+    private void setRotateMethods() {
+        pivot.setRotateMethods(
+            node -> tree.rotateLeft(node.getModel()),
+            node -> tree.rotateRight(node.getModel()));
     }
 
     /**
@@ -115,11 +317,14 @@ public class Visualizer {
     private void setUpNodeClickListener() {
         System.out.println("setting up node click listeners");
         canvas.onClick(e -> {
-            GraphicsObject clicked = canvas.getElementAt(e.getPosition());
-            if (clicked instanceof HitBox) {
+            moving = true; // wake the animation in case the click changes anything
+            Node clicked = findNodeAt(camera.toWorldX(e.getPosition().getX()), camera.toWorldY(e.getPosition().getY()));
+            if (clicked != null && clicked.isCollapsed()) {
+                expanded.add(clicked.getModel()); // open the summary instead of selecting it
+                pivot.clearSelectedNode();
+            } else if (clicked != null) {
                 System.out.println("clicked node");
-                HitBox hit = (HitBox) clicked;
-                pivot.setSelectedNode(hit.getNode());
+                pivot.setSelectedNode(clicked);
                 System.out.println(pivot.getSelectedNode().toString());
             } else {
                 pivot.clearSelectedNode();
@@ -127,6 +332,44 @@ public class Visualizer {
         });
     }
 
+    /**
+     * Drags the camera along with the mouse.
+     */
+    private void setUpPanListener() {
+        canvas.onDrag(e -> {
+            camera.pan(e.getDelta().getX(), e.getDelta().getY());
+            pivot.clearSelectedNode(); // the rotate buttons would be left behind
+        });
+    }
+
+    /**
+     * Finds the node drawn under a point with a binary search of the layout's row nearest to the point.
+     * The closest node in that row and the nodes beside it are checked, since a crowded node can be
+     * pushed a little away from its spot in the layout. The layout is not brought up to date first:
+     * the user clicked on the last frame drawn, and laying out here would hide a change in the tree's
+     * structure from the next frame, which would then leave the views headed for their old targets.
+     *
+     * @param x The x coordinate of the point in the world.
+     * @param y The y coordinate of the point in the world.
+     * @return The node under the point, or null if there is none.
+     */
+    private Node findNodeAt(double x, double y) {
+        int nearest = layout.findNearest(
+            Node.depthAt(y, canvas.getHeight()),
+            Node.layoutXAt(x, canvas.getWidth()));
+        if (nearest < 0) {
+            return null;
+        }
+        int[] candidates = {nearest, layout.getLeftNeighbor(nearest), layout.getRightNeighbor(nearest)};
+        for (int candidate : candidates) {
+            Node node = viewAt(candidate);
+            if (node != null && node.isShown() && node.distanceTo(x, y) <= Node.HIT_RADIUS) {
+                return node;
+            }
+        }
+        return null;
+    }
+
     /**
      * Adds the button to make a new tree to the canvas
      */
@@ -136,8 +379,10 @@ public class Visualizer {
         resetButton.setPosition(20, 20);
         resetButton.onClick(() -> {
             tree = new Tree(initialTreeSize);
+            layout = new TreeLayout(tree);
+            expanded.clear();
             drawGraphics();
-            pivot.setRotateMethods(tree::rotateLeft, tree::rotateRight);
+            setRotateMethods();
         });
     }
 
@@ -146,12 +391,40 @@ public class Visualizer {
         canvas.add(newNodeButton);
         newNodeButton.setPosition(-50, -50);
         newNodeButton.onClick(() -> {
-            Node newNode = tree.addRandomNode();
-            treeGroup.add(newNode, canvas.getWidth() / 2, -50 );
-            newNodeButton.setPosition(-50, -50);
+            tree.addRandomNode();
+            if (!tree.isBalanced()) { // a tree that is still balanced keeps its message and this button
+                newNodeButton.setPosition(-50, -50);
+            }
+        });
+    }
+
+    /**
+     * Adds the buttons that zoom the camera around the middle of the canvas and put it back
+     */
+    public void zoomButtons() {
+        Button zoomIn = new Button("Zoom in");
+        Button zoomOut = new Button("Zoom out");
+        Button resetView = new Button("Reset view");
+        canvas.add(zoomIn);
+        canvas.add(zoomOut);
+        canvas.add(resetView);
+        zoomIn.setPosition(20, CANVAS_HEIGHT - 50);
+        zoomOut.setPosition(120, CANVAS_HEIGHT - 50);
+        resetView.setPosition(220, CANVAS_HEIGHT - 50);
+        zoomIn.onClick(() -> zoomAroundCenter(1.5));
+        zoomOut.onClick(() -> zoomAroundCenter(1 / 1.5));
+        resetView.onClick(() -> {
+            camera.reset();
+            expanded.clear();
+            pivot.clearSelectedNode();
         });
     }
 
+    private void zoomAroundCenter(double factor) {
+        camera.zoomAt(factor, canvas.getWidth() / 2.0, canvas.getHeight() / 2.0);
+        pivot.clearSelectedNode();
+    }
+
     public static void main(String[] args) {
         Visualizer v = new Visualizer(15);
     }
@@ -0,0 +1,130 @@
+import java.util.Random;
+
+/**
+ * Drives a {@link Tree} with a reproducible stream of inserts, removals, rotations and queries. The
+ * operations are picked at random according to their weights and the keys come from a
+ * {@link KeyDistribution}; both use one seeded random number generator, so two workloads made with
+ * the same arguments send exactly the same operations. That makes it possible to replay a slow run or
+ * to compare balancing strategies on the same input.
+ */
+public class Workload {
+
+    /**
+     * How many operations of each kind a run performed.
+     *
+     * @param inserts   The number of insert operations, including ones that found the key present.
+     * @param removes   The number of remove operations, including ones that found the key missing.
+     * @param rotations The number of rotations.
+     * @param queries   The number of contains queries.
+     * @param hits      The number of queries that found their key.
+     */
+    public record Result(int inserts, int removes, int rotations, int queries, int hits) {
+    }
+
+    private final Random rand;
+    private final KeyDistribution keys;
+    private final int insertWeight;
+    private final int removeWeight;
+    private final int rotateWeight;
+    private final int queryWeight;
+    private int keysDrawn;
+
+    /**
+     * Constructs a workload. The weights are relative: weights of 3, 1, 0 and 6 make 30% inserts, 10%
+     * removals, no rotations and 60% queries.
+     *
+     * @param seed         The seed for every random choice.
+     * @param keys         The distribution of keys for inserts, removals and queries.
+     * @param insertWeight How often to insert.
+     * @param removeWeight How often to remove.
+     * @param rotateWeight How often to rotate a random node. Must be 0 for trees that balance
+     *                     themselves, as a manual rotation breaks the strategy's invariants.
+     * @param queryWeight  How often to look a key up.
+     */
+    public Workload(long seed, KeyDistribution keys, int insertWeight, int removeWeight, int rotateWeight, int queryWeight) {
+        if (insertWeight < 0 || removeWeight < 0 || rotateWeight < 0 || queryWeight < 0
+            || insertWeight + removeWeight + rotateWeight + queryWeight == 0) {
+            throw new IllegalArgumentException("Weights must not be negative and at least one must be positive");
+        }
+        this.rand = new Random(seed);
+        this.keys = keys;
+        this.insertWeight = insertWeight;
+        this.removeWeight = removeWeight;
+        this.rotateWeight = rotateWeight;
+        this.queryWeight = queryWeight;
+    }
+
+    /**
+     * Builds a new tree from the next keys of the distribution. Keys that are drawn twice are only
+     * inserted once, so the tree can end up smaller than the number of keys drawn.
+     *
+     * @param count     The number of keys to draw.
+     * @param balancing How the tree rebalances itself, or null to never rebalance.
+     * @return The new tree.
+     */
+    public Tree buildTree(int count, BalancingStrategy balancing) {
+        Tree tree = new Tree(0, balancing);
+        for (int i = 0; i < count; i++) {
+            tree.insert(nextKey());
+        }
+        return tree;
+    }
+
+    /**
+     * Performs the next operations of the stream on a tree.
+     *
+     * @param tree       The tree to drive.
+     * @param operations The number of operations to perform.
+     * @return How many operations of each kind were performed.
+     */
+    public Result run(Tree tree, int operations) {
+        if (rotateWeight > 0 && tree.getBalancing() != null) {
+            throw new IllegalArgumentException("Random rotations would break the tree's balancing strategy");
+        }
+        int inserts = 0;
+        int removes = 0;
+        int rotations = 0;
+        int queries = 0;
+        int hits = 0;
+        int totalWeight = insertWeight + removeWeight + rotateWeight + queryWeight;
+        for (int i = 0; i < operations; i++) {
+            int choice = rand.nextInt(totalWeight);
+            if (choice < insertWeight) {
+                tree.insert(nextKey());
+                inserts++;
+            } else if ((choice -= insertWeight) < removeWeight) {
+                tree.remove(nextKey());
+                removes++;
+            } else if ((choice -= removeWeight) < rotateWeight) {
+                rotateRandomNode(tree);
+                rotations++;
+            } else {
+                if (tree.contains(nextKey())) {
+                    hits++;
+                }
+                queries++;
+            }
+        }
+        return new Result(inserts, removes, rotations, queries, hits);
+    }
+
+    /**
+     * Rotates a node picked uniformly at random, in a random direction. If the node has no child on the
+     * needed side, the rotation does nothing, just as when a user picks such a node.
+     */
+    private void rotateRandomNode(Tree tree) {
+        if (tree.size() == 0) {
+            return;
+        }
+        TreeNode pivot = tree.select(rand.nextInt(tree.size()));
+        if (rand.nextBoolean()) {
+            tree.rotateLeft(pivot);
+        } else {
+            tree.rotateRight(pivot);
+        }
+    }
+
+    private int nextKey() {
+        return keys.nextKey(rand, keysDrawn++);
+    }
+}
@@ -0,0 +1,114 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that the handle based tree keeps the same BST and AVL properties as Tree does.
+ */
+public class CompactTreeTest {
+    private CompactTree tree;
+
+    @BeforeEach
+    public void setUp() {
+        tree = new CompactTree(4); //small capacity so the store has to grow
+        Random rand = new Random(127);
+        while (tree.size() < 200) {
+            tree.insert(rand.nextInt(1000));
+        }
+    }
+
+    @Test
+    public void testDuplicateInsertIsIgnored() {
+        int key = tree.getStore().getKey(tree.getRoot());
+        assertEquals(CompactTree.NIL, tree.insert(key));
+        assertEquals(200, tree.size());
+    }
+
+    @Test
+    public void testLevelOrderVisitsEveryNode() {
+        int[] count = new int[1];
+        tree.forEachLevelOrder(node -> count[0]++);
+        assertEquals(200, count[0]);
+    }
+
+    @Test
+    public void testRotationsKeepProperties() {
+        checkNode(tree.getRoot(), CompactTree.NIL);
+        for (int i = 0; i < 50; i++) {
+            int root = tree.getRoot();
+            if (i % 2 == 0) {
+                tree.rotateLeft(root);
+            } else {
+                tree.rotateRight(root);
+            }
+            checkNode(tree.getRoot(), CompactTree.NIL);
+        }
+    }
+
+    @Test
+    public void testClearReusesStore() {
+        tree.clear();
+        assertEquals(CompactTree.NIL, tree.getRoot());
+        for (int i = 0; i < 10; i++) {
+            tree.insert(i);
+        }
+        assertEquals(10, tree.size());
+        //sorted input makes a right leaning chain
+        assertEquals(10, tree.getStore().getHeight(tree.getRoot()));
+        assertEquals(9, tree.getStore().getBalance(tree.getRoot()));
+    }
+
+    @Test
+    public void testOffHeapStoreMatchesArrayStore() {
+        CompactTree offHeap = new CompactTree(new OffHeapNodeStore(8)); //small chunks so the store grows many times
+        Random rand = new Random(127);
+        while (offHeap.size() < 200) {
+            offHeap.insert(rand.nextInt(1000));
+        }
+        offHeap.rotateLeft(offHeap.getRoot());
+        tree.rotateLeft(tree.getRoot());
+
+        //both trees were built from the same keys, so every handle should hold the same record
+        for (int node = 0; node < 200; node++) {
+            assertEquals(tree.getStore().getKey(node), offHeap.getStore().getKey(node));
+            assertEquals(tree.getStore().getLeft(node), offHeap.getStore().getLeft(node));
+            assertEquals(tree.getStore().getRight(node), offHeap.getStore().getRight(node));
+            assertEquals(tree.getStore().getParent(node), offHeap.getStore().getParent(node));
+            assertEquals(tree.getStore().getHeight(node), offHeap.getStore().getHeight(node));
+            assertEquals(tree.getStore().getBalance(node), offHeap.getStore().getBalance(node));
+        }
+        assertEquals(tree.getRoot(), offHeap.getRoot());
+    }
+
+    @Test
+    public void testOffHeapStoreRejectsOversizedChunk() {
+        assertThrows(IllegalArgumentException.class, () -> new OffHeapNodeStore(OffHeapNodeStore.MAX_CHUNK_SIZE * 2));
+    }
+
+    /**
+     * Checks the BST order, parent links, height and AVL value below a node and returns its height
+     */
+    private int checkNode(int node, int parent) {
+        if (node == CompactTree.NIL) {
+            return 0;
+        }
+        NodeStore store = tree.getStore();
+        assertEquals(parent, store.getParent(node));
+        int left = store.getLeft(node);
+        int right = store.getRight(node);
+        if (left != CompactTree.NIL) {
+            assertTrue(store.getKey(left) < store.getKey(node));
+        }
+        if (right != CompactTree.NIL) {
+            assertTrue(store.getKey(right) > store.getKey(node));
+        }
+        int leftHeight = checkNode(left, node);
+        int rightHeight = checkNode(right, node);
+        assertEquals(1 + Math.max(leftHeight, rightHeight), store.getHeight(node));
+        assertEquals(rightHeight - leftHeight, store.getBalance(node));
+        return store.getHeight(node);
+    }
+}
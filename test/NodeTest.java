@@ -0,0 +1,53 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that node views animated the way the Visualizer animates them come to rest.
+ */
+public class NodeTest {
+    private static final double WIDTH = 1400;
+    private static final double HEIGHT = 800;
+
+    @Test
+    public void testCrowdedLayoutSettles() {
+        for (int size : new int[] {200, 1000}) {
+            Tree tree = new Tree(size, null, new ShuffledKeySource(0, 2 * size, new Random(size)));
+            assertTrue(tree.getRoot().getHeightFromLeaf() > 6); //deep enough for nodes to push each other aside
+            assertTrue(framesToSettle(tree) < 1000);
+        }
+    }
+
+    /**
+     * Animates a view of every node in the tree, starting from their targets, and returns the number
+     * of frames until none of them moves.
+     */
+    private int framesToSettle(Tree tree) {
+        TreeLayout layout = new TreeLayout(tree);
+        layout.update();
+        TreeRenderer renderer = new TreeRenderer(WIDTH, HEIGHT, new Camera());
+        Node[] views = new Node[layout.getNodeCount()];
+        for (int rank = 0; rank < views.length; rank++) {
+            views[rank] = new Node(renderer);
+            views[rank].bind(layout.getNode(rank), layout.getLayoutX(rank), layout.getDepth(rank), WIDTH, HEIGHT);
+        }
+        for (int frame = 1; frame <= 100_000; frame++) {
+            boolean moving = false;
+            for (int rank = 0; rank < views.length; rank++) {
+                if (views[rank].animate(1 / 60.0, viewAt(views, layout.getLeftNeighbor(rank)), viewAt(views, layout.getRightNeighbor(rank)))) {
+                    moving = true;
+                }
+            }
+            if (!moving) {
+                return frame;
+            }
+        }
+        return Integer.MAX_VALUE;
+    }
+
+    private static Node viewAt(Node[] views, int rank) {
+        return rank < 0 ? null : views[rank];
+    }
+}
@@ -1,5 +1,11 @@
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
@@ -29,13 +35,13 @@ public class TreeTest {
     @Test
     /** Make sure all children nodes follow the BST property */
     public void checkBST() {
-        Node root = tree.getRoot();
+        TreeNode root = tree.getRoot();
         checkBSTHelper(root);
     }
 
     @Test
     public void testRotationMaintainsBSTProperty() {
-        Node root = tree.getRoot();
+        TreeNode root = tree.getRoot();
         
         //perform a left rotation and check BST property
         if (root.getRight() != null) {
@@ -61,9 +67,14 @@ public class TreeTest {
 
     @Test
     public void testNodeProperties() {
-        Node root = tree.getRoot();
+        TreeNode root = tree.getRoot();
+        TreeLayout layout = new TreeLayout(tree);
+        layout.update();
         //test root node properties
-        assertEquals(0, root.getId());
+        int rootRank = tree.rank(root.getData());
+        assertEquals(root, layout.getNode(rootRank));
+        assertEquals(0, layout.getDepth(rootRank));
+        assertEquals(-1, layout.getParent(rootRank));
         assertNull(root.getParent());
         assertTrue(root.getHeightFromLeaf() >= 1);
     }
@@ -84,10 +95,10 @@ public class TreeTest {
 
     @Test
     public void testRotationConnections() {
-        Node root = tree.getRoot();
+        TreeNode root = tree.getRoot();
         if (root.getRight() != null) {
-            Node oldRoot = root;
-            Node newRoot = tree.rotateLeft(root);
+            TreeNode oldRoot = root;
+            TreeNode newRoot = tree.rotateLeft(root);
             
             //test parent-child relationships after rotation
             assertNull(newRoot.getParent());
@@ -102,7 +113,446 @@ public class TreeTest {
         traverseAndCheckAVL(tree.getRoot());
     }
 
-    private void traverseAndCheckAVL(Node node) {
+    @Test
+    public void testIncrementalUpdatesMatchFullSweep() {
+        tree.setVerifyUpdates(true);
+        //every rotation and insert checks itself against a full sweep
+        for (int i = 0; i < 20; i++) {
+            TreeNode root = tree.getRoot();
+            if (root.getRight() != null) {
+                tree.rotateLeft(root);
+            }
+            TreeNode node = tree.addRandomNode();
+            if (node.getParent().getLeft() != null) {
+                tree.rotateRight(node.getParent());
+            }
+        }
+        traverseAndCheckAVL(tree.getRoot());
+    }
+
+    @Test
+    public void testAutoBalanceKeepsSortedInsertsBalanced() {
+        Tree balanced = new Tree(10, new AVLBalancer());
+        balanced.setVerifyUpdates(true);
+        for (int value = 100; value < 1100; value++) {
+            balanced.insert(value);
+        }
+        checkBSTHelper(balanced.getRoot());
+        traverseAndCheckAVL(balanced.getRoot());
+        assertTrue(allBalanced(balanced.getRoot()));
+        //an AVL tree with 1010 nodes is at most 1.44 * log2(1010) high
+        assertTrue(balanced.getRoot().getHeightFromLeaf() <= 14);
+    }
+
+    @Test
+    public void testRedBlackKeepsSortedInsertsBalanced() {
+        Tree redBlack = new Tree(10, new RedBlackBalancer());
+        redBlack.setVerifyUpdates(true);
+        for (int value = 100; value < 1100; value++) {
+            redBlack.insert(value);
+        }
+        checkBSTHelper(redBlack.getRoot());
+        traverseAndCheckAVL(redBlack.getRoot());
+        assertFalse(redBlack.getRoot().isRed());
+        checkRedBlack(redBlack.getRoot());
+        //a red-black tree with 1010 nodes is at most 2 * log2(1011) high
+        assertTrue(redBlack.getRoot().getHeightFromLeaf() <= 20);
+        assertTrue(redBlack.getRotationCount() > 0);
+    }
+
+    @Test
+    public void testFromSortedBuildsBalancedTree() {
+        int[] keys = new int[1000];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = i * 3;
+        }
+        Tree built = Tree.fromSorted(keys);
+        built.verifyNodes();
+        checkBSTHelper(built.getRoot());
+        assertTrue(allBalanced(built.getRoot()));
+        assertEquals(10, built.getRoot().getHeightFromLeaf());
+        assertEquals(1000, built.getAllValues().size());
+        assertThrows(IllegalArgumentException.class, () -> Tree.fromSorted(new int[] {1, 3, 2}));
+    }
+
+    @Test
+    public void testFromSortedWithNoKeysIsEmpty() {
+        Tree empty = Tree.fromSorted(new int[0]);
+        assertEquals(0, empty.size());
+        assertNull(empty.getRoot());
+        assertTrue(empty.isBalanced());
+        assertNotNull(empty.insert(5));
+        assertNotNull(empty.addRandomNode());
+        assertEquals(2, empty.size());
+        checkBSTHelper(empty.getRoot());
+    }
+
+    @Test
+    public void testRebalanceRepairsDegenerateTree() {
+        Tree chain = Tree.fromSorted(new int[] {0});
+        for (int value = 1; value < 1000; value++) {
+            chain.insert(value); //sorted inserts make a chain of right children
+        }
+        assertEquals(1000, chain.getRoot().getHeightFromLeaf());
+        chain.rebalance();
+        chain.verifyNodes();
+        checkBSTHelper(chain.getRoot());
+        assertTrue(allBalanced(chain.getRoot()));
+        assertEquals(10, chain.getRoot().getHeightFromLeaf());
+        int count = 0;
+        LevelIterator iterator = new LevelIterator(chain.getRoot());
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testRebalanceKeepsRedBlackRules() {
+        for (int size : new int[] {1, 2, 7, 10, 300}) {
+            Tree redBlack = new Tree(size, new RedBlackBalancer());
+            for (int i = 0; i < 3; i++) {
+                redBlack.rotateLeft(redBlack.getRoot()); //skew the tree so the rebalance has work to do
+            }
+            redBlack.rebalance();
+            checkRedBlackUnderChurn(redBlack, size);
+        }
+    }
+
+    @Test
+    public void testSetBalancingColorsExistingTree() {
+        for (int size : new int[] {1, 2, 7, 10, 300}) {
+            Tree loaded = Tree.fromSorted(IntStream.range(0, size));
+            loaded.setBalancing(new RedBlackBalancer());
+            checkRedBlackUnderChurn(loaded, size);
+
+            Tree chain = Tree.fromSorted(new int[] {0});
+            for (int value = 1; value < size; value++) {
+                chain.insert(value); //a chain can't be colored, so it has to be rebalanced first
+            }
+            chain.setBalancing(new RedBlackBalancer());
+            assertTrue(chain.getRoot().getHeightFromLeaf() <= 9);
+            checkRedBlackUnderChurn(chain, size);
+        }
+    }
+
+    @Test
+    public void testSetBalancingRebalancesExistingTree() {
+        Tree chain = Tree.fromSorted(new int[] {0});
+        for (int value = 1; value < 50; value++) {
+            chain.insert(value); //AVL fixes after an insert assume the tree was balanced before it
+        }
+        chain.setBalancing(new AVLBalancer());
+        assertTrue(chain.isBalanced());
+        chain.setVerifyUpdates(true);
+        for (int value = 50; value < 200; value++) {
+            chain.insert(value);
+            assertTrue(chain.isBalanced());
+        }
+        checkBSTHelper(chain.getRoot());
+        traverseAndCheckAVL(chain.getRoot());
+        //an AVL tree with 200 nodes is at most 1.44 * log2(202) high
+        assertTrue(chain.getRoot().getHeightFromLeaf() <= 11);
+    }
+
+    @Test
+    public void testRemoveMaintainsProperties() {
+        tree.setVerifyUpdates(true);
+        for (int value : tree.getAllValues().stream().mapToInt(Integer::intValue).toArray()) {
+            assertTrue(tree.remove(value));
+            assertFalse(tree.getAllValues().contains(value));
+            if (tree.getRoot() != null) {
+                checkBSTHelper(tree.getRoot());
+                traverseAndCheckAVL(tree.getRoot());
+            }
+        }
+        assertNull(tree.getRoot());
+        assertFalse(tree.remove(5));
+        assertNotNull(tree.insert(5));
+        assertEquals(5, tree.getRoot().getData());
+    }
+
+    @Test
+    public void testRemoveWithBalancingUnderChurn() {
+        BalancingStrategy[] strategies = {new AVLBalancer(), new RedBlackBalancer()};
+        for (BalancingStrategy strategy : strategies) {
+            Tree churned = new Tree(1, strategy);
+            churned.setVerifyUpdates(true);
+            Random rand = new Random(128);
+            for (int i = 0; i < 3000; i++) {
+                int value = 100 + rand.nextInt(300);
+                if (rand.nextBoolean()) {
+                    churned.insert(value);
+                } else {
+                    churned.remove(value);
+                }
+                if (strategy instanceof AVLBalancer) {
+                    assertTrue(allBalanced(churned.getRoot()));
+                } else {
+                    assertFalse(churned.getRoot().isRed());
+                    checkRedBlack(churned.getRoot());
+                }
+            }
+            checkBSTHelper(churned.getRoot());
+        }
+    }
+
+    @Test
+    public void testOrderedQueries() {
+        Tree evens = Tree.fromSorted(IntStream.range(0, 50).map(i -> i * 2));
+        assertTrue(evens.contains(42));
+        assertFalse(evens.contains(43));
+        assertEquals(42, evens.floor(43).getData());
+        assertEquals(44, evens.ceiling(43).getData());
+        assertEquals(42, evens.floor(42).getData());
+        assertNull(evens.floor(-1));
+        assertNull(evens.ceiling(99));
+        assertEquals(0, evens.min().getData());
+        assertEquals(98, evens.max().getData());
+
+        StringBuilder scanned = new StringBuilder();
+        evens.range(9, 17, value -> scanned.append(value).append(' '));
+        assertEquals("10 12 14 16 ", scanned.toString());
+        assertEquals(50, evens.size());
+        assertEquals(evens.size(), evens.getAllValues().size());
+    }
+
+    @Test
+    public void testOrderStatistics() {
+        Tree churned = new Tree(1, new AVLBalancer());
+        churned.setVerifyUpdates(true);
+        Random rand = new Random(11);
+        for (int i = 0; i < 500; i++) {
+            churned.insert(100 + rand.nextInt(400));
+            churned.remove(100 + rand.nextInt(400));
+        }
+        int[] sorted = churned.getAllValues().stream().mapToInt(Integer::intValue).sorted().toArray();
+        assertEquals(sorted.length, churned.getRoot().getSubtreeSize());
+        for (int k = 0; k < sorted.length; k++) {
+            assertEquals(sorted[k], churned.select(k).getData());
+            assertEquals(k, churned.rank(sorted[k]));
+        }
+        assertEquals(sorted.length, churned.countInRange(Integer.MIN_VALUE, Integer.MAX_VALUE));
+        long expected = Arrays.stream(sorted).filter(v -> v >= 200 && v <= 300).count();
+        assertEquals(expected, churned.countInRange(200, 300));
+        assertThrows(IndexOutOfBoundsException.class, () -> churned.select(sorted.length));
+    }
+
+    @Test
+    public void testTreesLargerThanDefaultKeyRange() {
+        Tree large = new Tree(100_000);
+        assertEquals(100_000, large.size());
+        assertTrue(large.min().getData() >= 0);
+        assertTrue(large.max().getData() < 200_000);
+        int value = large.addRandomNode().getData(); //keys are drawn from twice the size, so some are left
+        assertTrue(large.contains(value));
+        assertEquals(100_001, large.size());
+        for (int size : new int[] {100, 1000}) {
+            Tree full = new Tree(size);
+            assertNotNull(full.addRandomNode());
+        }
+    }
+
+    @Test
+    public void testKeySourceRunsOutAndReusesReleasedKeys() {
+        Tree full = new Tree(20, null, new ShuffledKeySource(0, 20, new Random(3)));
+        assertEquals(20, full.size());
+        assertThrows(IllegalStateException.class, full::addRandomNode);
+        full.remove(7);
+        assertEquals(7, full.addRandomNode().getData());
+        assertThrows(IllegalArgumentException.class, () -> new ShuffledKeySource(-2_000_000_000, 2_000_000_000, new Random()));
+    }
+
+    @Test
+    public void testAddRandomNodeAfterBulkLoad() {
+        Tree loaded = Tree.fromSorted(IntStream.range(0, 100));
+        loaded.setVerifyUpdates(true);
+        for (int i = 0; i < 100; i++) {
+            int value = loaded.addRandomNode().getData();
+            assertTrue(value >= 100 && value < 200); //every key below 100 was loaded
+        }
+        assertEquals(200, loaded.size());
+        checkBSTHelper(loaded.getRoot());
+
+        Tree removedFrom = Tree.fromSorted(IntStream.range(0, 100));
+        assertTrue(removedFrom.remove(42)); //no key source has been made yet
+        assertTrue(removedFrom.addRandomNode().getData() >= 0);
+        assertEquals(100, removedFrom.size());
+    }
+
+    @Test
+    public void testTooLargeRandomTreeIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new Tree(ShuffledKeySource.MAX_RANGE + 1));
+    }
+
+    @Test
+    public void testInsertIntoDeepDegenerateTree() {
+        Tree chain = new Tree(0, null);
+        for (int value = 0; value < 20_000; value++) {
+            chain.insert(value); //each insert descends the whole chain without recursing
+        }
+        assertEquals(20_000, chain.getRoot().getHeightFromLeaf());
+        assertEquals(19_999, chain.max().getData());
+    }
+
+    @Test
+    public void testInsertIgnoresDuplicates() {
+        int value = tree.getRoot().getData();
+        tree.setVerifyUpdates(true);
+        long version = tree.getStructureVersion();
+        assertNull(tree.insert(value));
+        assertNull(tree.insert(tree.max().getData())); //a leaf, found at the bottom of the descent
+        assertEquals(10, tree.getAllValues().size());
+        assertEquals(10, tree.size());
+        assertEquals(version, tree.getStructureVersion());
+        assertNotNull(tree.insert(100));
+        assertEquals(11, tree.getAllValues().size());
+        assertEquals(11, tree.size());
+    }
+
+    @Test
+    public void testUnbalancedNodesAreFound() {
+        Tree chain = new Tree(0, null);
+        chain.setVerifyUpdates(true); //each change also checks the unbalanced nodes found against a full sweep
+        for (int value = 0; value < 5; value++) {
+            chain.insert(value);
+        }
+        assertFalse(chain.isBalanced());
+        //in a chain of 5 only the bottom two nodes are balanced
+        assertEquals(3, chain.getUnbalancedNodes().size());
+        assertTrue(chain.getUnbalancedNodes().contains(chain.getRoot()));
+        chain.rebalance();
+        assertTrue(chain.isBalanced());
+        chain.insert(5);
+        chain.insert(6);
+        chain.remove(0);
+        assertEquals(allBalanced(chain.getRoot()), chain.isBalanced());
+        Tree balanced = new Tree(50, new AVLBalancer());
+        assertTrue(balanced.isBalanced());
+    }
+
+    @Test
+    public void testWorstImbalanceIsKeptPerSubtree() {
+        Tree chain = new Tree(0, null);
+        chain.setVerifyUpdates(true); //each change also checks the worst imbalances against a full sweep
+        for (int value = 0; value < 6; value++) {
+            chain.insert(value);
+        }
+        assertEquals(5, chain.getRoot().getMaxImbalance());
+        assertEquals(1, chain.select(4).getMaxImbalance());
+        chain.rotateLeft(chain.select(3)); //balances the bottom of the chain
+        assertEquals(0, chain.select(4).getMaxImbalance());
+        assertEquals(4, chain.getRoot().getMaxImbalance());
+    }
+
+    @Test
+    public void testLayoutOfCompleteTree() {
+        Tree full = Tree.fromSorted(IntStream.range(0, 15));
+        TreeLayout layout = new TreeLayout(full);
+        assertTrue(layout.update());
+        assertFalse(layout.update()); //nothing changed, so nothing is recomputed
+        assertEquals(4, layout.getDepthCount());
+        assertEquals(15, layout.getNodeCount());
+        //the keys are 0 to 14, so each key is also its rank
+        assertEquals(full.select(4), layout.getNode(4));
+        assertEquals(3, layout.getDepth(4));
+        assertEquals(2, layout.getLevelIndex(4));
+        assertEquals(5.0 / 16, layout.getLayoutX(4), 1e-12); //one column per node, in order
+        assertEquals(5, layout.getParent(4));
+        assertEquals(3, layout.getParent(5));
+        assertEquals(1, layout.getLeftChild(3));
+        assertEquals(5, layout.getRightChild(3));
+        assertEquals(-1, layout.getLeftChild(4));
+        assertEquals(2, layout.getLeftNeighbor(4));
+        assertEquals(6, layout.getRightNeighbor(4));
+        assertEquals(-1, layout.getLeftNeighbor(0));
+        assertEquals(-1, layout.getRightNeighbor(7));
+        //a position between two leaves picks the closer one
+        assertEquals(4, layout.findNearest(3, 5.4 / 16));
+        assertEquals(6, layout.findNearest(3, 6.6 / 16));
+        assertEquals(14, layout.findNearest(3, 2.0));
+        assertEquals(-1, layout.findNearest(4, 0.5));
+        //a box over the right half of the bottom two levels, visited parents first
+        List<Integer> inBox = new ArrayList<>();
+        layout.forEachInRange(2, 5, 0.5, 1, rank -> inBox.add(layout.getNode(rank).getData()));
+        assertEquals(List.of(9, 8, 10, 13, 12, 14), inBox);
+        //standing 13 in for its subtree skips its children
+        inBox.clear();
+        layout.forEachInRange(2, 5, 0.5, 1, rank -> inBox.add(rank) && rank != 13);
+        assertEquals(List.of(9, 8, 10, 13), inBox);
+    }
+
+    @Test
+    public void testLayoutOfDeepDegenerateTree() {
+        Tree chain = new Tree(0, null);
+        for (int value = 0; value < 100; value++) {
+            chain.insert(value);
+        }
+        TreeLayout layout = new TreeLayout(chain);
+        layout.update();
+        assertEquals(100, layout.getDepthCount());
+        //far deeper than a heap index could count, yet every node keeps its own column
+        double previousX = 0;
+        for (int value = 0; value < 100; value++) {
+            assertEquals(chain.select(value), layout.getNode(value));
+            assertEquals(value, layout.getDepth(value));
+            assertTrue(layout.getLayoutX(value) > previousX && layout.getLayoutX(value) < 1);
+            previousX = layout.getLayoutX(value);
+        }
+        chain.rotateLeft(chain.getRoot());
+        assertTrue(layout.update());
+        assertEquals(0, layout.getDepth(1));
+        assertEquals(1, layout.getDepth(0));
+        assertEquals(99, layout.getDepthCount());
+        //removing nodes shrinks the layout
+        for (int value = 0; value < 50; value++) {
+            chain.remove(value);
+        }
+        assertTrue(layout.update());
+        assertEquals(50, layout.getNodeCount());
+        assertEquals(chain.select(0), layout.getNode(0));
+    }
+
+    /** Checks the red-black rules hold before and after each of a run of random inserts and removals */
+    private void checkRedBlackUnderChurn(Tree redBlack, long seed) {
+        redBlack.setVerifyUpdates(true);
+        assertFalse(redBlack.getRoot().isRed());
+        checkRedBlack(redBlack.getRoot());
+        Random rand = new Random(seed);
+        for (int i = 0; i < 500; i++) {
+            int value = rand.nextInt(1000);
+            if (rand.nextBoolean()) {
+                redBlack.insert(value);
+            } else {
+                redBlack.remove(value);
+            }
+            if (redBlack.getRoot() != null) {
+                assertFalse(redBlack.getRoot().isRed());
+                checkRedBlack(redBlack.getRoot());
+            }
+        }
+        checkBSTHelper(redBlack.getRoot());
+    }
+
+    /** Checks that no red node has a red child and returns the number of black nodes on every path */
+    private int checkRedBlack(TreeNode node) {
+        if (node == null) return 1;
+        if (node.isRed()) {
+            assertFalse(node.getLeft() != null && node.getLeft().isRed());
+            assertFalse(node.getRight() != null && node.getRight().isRed());
+        }
+        int blackHeight = checkRedBlack(node.getLeft());
+        assertEquals(blackHeight, checkRedBlack(node.getRight()));
+        return blackHeight + (node.isRed() ? 0 : 1);
+    }
+
+    private boolean allBalanced(TreeNode node) {
+        if (node == null) return true;
+        return Math.abs(node.getAvlValue()) <= 1 && allBalanced(node.getLeft()) && allBalanced(node.getRight());
+    }
+
+    private void traverseAndCheckAVL(TreeNode node) {
         if (node == null) return;
         
         //check if AVL value is correctly calculated
@@ -114,7 +564,7 @@ public class TreeTest {
         traverseAndCheckAVL(node.getRight());
     }
 
-    private void checkBSTHelper(Node node) {
+    private void checkBSTHelper(TreeNode node) {
         if (node.getLeft() != null) {
             assertTrue(0 < node.compareTo(node.getLeft()));
             checkBSTHelper(node.getLeft());
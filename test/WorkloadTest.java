@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that workloads are reproducible and that the key distributions stay in their ranges.
+ */
+public class WorkloadTest {
+
+    @Test
+    public void testSameSeedGivesSameTree() {
+        Tree first = runMixedWorkload(42);
+        Tree second = runMixedWorkload(42);
+        assertEquals(first.toString(), second.toString());
+        assertEquals(first.getRotationCount(), second.getRotationCount());
+    }
+
+    @Test
+    public void testSameInputForDifferentStrategies() {
+        Workload avlWorkload = new Workload(7, KeyDistribution.zipfian(0, 1000, 1.0), 5, 2, 0, 3);
+        Workload redBlackWorkload = new Workload(7, KeyDistribution.zipfian(0, 1000, 1.0), 5, 2, 0, 3);
+        Tree avl = avlWorkload.buildTree(500, new AVLBalancer());
+        Tree redBlack = redBlackWorkload.buildTree(500, new RedBlackBalancer());
+        assertEquals(avlWorkload.run(avl, 2000), redBlackWorkload.run(redBlack, 2000));
+        assertEquals(avl.getAllValues(), redBlack.getAllValues());
+    }
+
+    @Test
+    public void testRotationsRejectedForBalancedTrees() {
+        Workload workload = new Workload(1, KeyDistribution.uniform(0, 100), 1, 0, 1, 0);
+        Tree balanced = new Tree(10, new AVLBalancer());
+        assertThrows(IllegalArgumentException.class, () -> workload.run(balanced, 10));
+    }
+
+    @Test
+    public void testDistributions() {
+        Random rand = new Random(5);
+        KeyDistribution ascending = KeyDistribution.ascending(10);
+        KeyDistribution descending = KeyDistribution.descending(10);
+        assertEquals(13, ascending.nextKey(rand, 3));
+        assertEquals(7, descending.nextKey(rand, 3));
+
+        KeyDistribution[] ranged = {
+            KeyDistribution.uniform(100, 200),
+            KeyDistribution.zipfian(100, 200, 1.2),
+            KeyDistribution.clustered(100, 200, 3, 20),
+        };
+        for (KeyDistribution distribution : ranged) {
+            for (int i = 0; i < 1000; i++) {
+                int key = distribution.nextKey(rand, i);
+                assertTrue(key >= 100 && key < 200);
+            }
+        }
+
+        //the smallest key is the most frequent one in a zipfian distribution
+        KeyDistribution zipfian = KeyDistribution.zipfian(0, 50, 1.0);
+        int[] counts = new int[50];
+        for (int i = 0; i < 10000; i++) {
+            counts[zipfian.nextKey(rand, i)]++;
+        }
+        assertTrue(counts[0] > counts[1] && counts[1] > counts[10]);
+    }
+
+    private Tree runMixedWorkload(long seed) {
+        Workload workload = new Workload(seed, KeyDistribution.clustered(0, 10000, 4, 300), 4, 1, 1, 4);
+        Tree tree = workload.buildTree(300, null);
+        workload.run(tree, 3000);
+        return tree;
+    }
+}